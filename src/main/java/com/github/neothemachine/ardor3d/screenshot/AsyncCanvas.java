@@ -0,0 +1,54 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A canvas which queues screenshots, so that callers can submit them without
+ * waiting, in batches, or with a deadline.
+ */
+public interface AsyncCanvas {
+
+	/**
+	 * Takes a screenshot, but waits at most the given time for it.
+	 * On timeout or interruption, the shot is cancelled and won't
+	 * use the render thread any longer.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return
+	 * @throws InterruptedException
+	 * @throws TimeoutException
+	 * @throws Ardor3DRenderException on unexpected errors
+	 */
+	BufferedImage takeShot(long timeout, TimeUnit unit)
+			throws InterruptedException, TimeoutException;
+
+	/**
+	 * Queues a screenshot and returns immediately. Shots are taken in the
+	 * order they were submitted; the updates of the request are applied right
+	 * before its shot. A failed shot completes the future with an
+	 * {@link Ardor3DRenderException}. A request which is cancelled before
+	 * its shot started is skipped together with its updates.
+	 *
+	 * @param request
+	 * @return
+	 */
+	ListenableFuture<BufferedImage> takeShotAsync(ShotRequest request);
+
+	/**
+	 * Takes one screenshot per request, in order. The requests are rendered
+	 * back to back, each one after applying its updates on top of the
+	 * previous ones, e.g. to render the same model with different textures.
+	 *
+	 * @param requests
+	 * @return the screenshots in the order of the requests
+	 * @throws Ardor3DRenderException on unexpected errors
+	 */
+	List<BufferedImage> takeShots(List<ShotRequest> requests);
+
+}
@@ -0,0 +1,102 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Takes queued screenshots one after another on its own thread, for canvases
+ * which render on the calling thread of takeShot().
+ * The thread is created with the first request.
+ */
+class AsyncShotExecutor {
+
+	/**
+	 * A canvas which can stop a shot between its steps.
+	 */
+	interface CancellableCanvas {
+
+		/**
+		 * Takes a shot like takeShot(), unless the given shot is cancelled
+		 * before its image is read back.
+		 *
+		 * @throws CancellationException
+		 *             if the shot was cancelled
+		 */
+		BufferedImage takeShot(Future<?> shot);
+	}
+
+	private final ScreenshotCanvas canvas;
+
+	private ListeningExecutorService executor;
+
+	private boolean isShutdown = false;
+
+	AsyncShotExecutor(ScreenshotCanvas canvas) {
+		this.canvas = canvas;
+	}
+
+	synchronized ListenableFuture<BufferedImage> submit(final ShotRequest request) {
+		if (isShutdown) {
+			throw new IllegalStateException("Canvas is disposed");
+		}
+		if (executor == null) {
+			executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor(
+					new ThreadFactoryBuilder().setDaemon(true)
+						.setNameFormat("screenshot-" + canvas.getSize().getWidth()
+							+ "x" + canvas.getSize().getHeight() + "-%d").build()));
+		}
+		ShotTask shot = new ShotTask(request);
+		ListenableFutureTask<BufferedImage> task = ListenableFutureTask.create(shot);
+		shot.future = task;
+		executor.execute(task);
+		return task;
+	}
+
+	private class ShotTask implements Callable<BufferedImage> {
+
+		private final ShotRequest request;
+
+		// set before the task is executed
+		Future<?> future;
+
+		ShotTask(ShotRequest request) {
+			this.request = request;
+		}
+
+		@Override
+		public BufferedImage call() throws Exception {
+			// no other shot may sneak in between the updates and the shot
+			synchronized (canvas) {
+				request.queueOn(canvas);
+				if (canvas instanceof CancellableCanvas) {
+					return ((CancellableCanvas) canvas).takeShot(future);
+				}
+				return canvas.takeShot();
+			}
+		}
+	}
+
+	/**
+	 * Cancels all shots which haven't been started yet.
+	 */
+	synchronized void shutdown() {
+		isShutdown = true;
+		if (executor != null) {
+			for (Runnable task : executor.shutdownNow()) {
+				if (task instanceof Future) {
+					((Future<?>) task).cancel(false);
+				}
+			}
+		}
+	}
+
+}
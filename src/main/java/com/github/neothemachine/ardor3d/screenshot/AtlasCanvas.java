@@ -0,0 +1,29 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * A canvas which can render many small images in one frame, each into its
+ * own cell of the framebuffer, and read all of them back at once.
+ *
+ * @see ScreenshotCanvasPool#takeAtlasShots(IntDimension, List, List)
+ */
+public interface AtlasCanvas {
+
+	/**
+	 * Renders one image per request. The updates of each request are applied
+	 * right before its cell is rendered, so they stay in effect for the
+	 * following cells unless those undo them. The field of view is the one of
+	 * the canvas, widened or narrowed to the aspect ratio of the image.
+	 *
+	 * @param sizes
+	 *            the size of each image
+	 * @return the images in the order of the requests
+	 * @throws IllegalArgumentException
+	 *             if the images don't fit into the canvas together
+	 */
+	List<BufferedImage> takeAtlasShots(List<ShotRequest> requests,
+			List<IntDimension> sizes);
+
+}
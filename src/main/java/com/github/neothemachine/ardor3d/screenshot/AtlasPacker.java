@@ -0,0 +1,56 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.util.List;
+
+/**
+ * Packs images into an atlas in shelves: left to right, and into a new shelf
+ * below the highest image of the current one when the row is full. The order
+ * of the images is kept.
+ */
+final class AtlasPacker {
+
+	private AtlasPacker() {
+	}
+
+	/**
+	 * Packs as many images as fit into the atlas, starting at the given index.
+	 *
+	 * @param cells
+	 *            receives x, y, width and height of each packed image, y
+	 *            counted from the top, may be null
+	 * @return the index after the last packed image
+	 * @throws IllegalArgumentException
+	 *             if an image is larger than the atlas
+	 */
+	static int pack(List<IntDimension> sizes, int from, IntDimension atlas,
+			List<int[]> cells) {
+		int x = 0;
+		int y = 0;
+		int shelfHeight = 0;
+		int i = from;
+		for (; i < sizes.size(); i++) {
+			IntDimension size = sizes.get(i);
+			if (size.getWidth() > atlas.getWidth()
+					|| size.getHeight() > atlas.getHeight()) {
+				throw new IllegalArgumentException("Image of size "
+						+ size.getWidth() + "x" + size.getHeight()
+						+ " is larger than the atlas");
+			}
+			if (x + size.getWidth() > atlas.getWidth()) {
+				x = 0;
+				y += shelfHeight;
+				shelfHeight = 0;
+			}
+			if (y + size.getHeight() > atlas.getHeight()) {
+				break;
+			}
+			if (cells != null) {
+				cells.add(new int[] { x, y, size.getWidth(), size.getHeight() });
+			}
+			x += size.getWidth();
+			shelfHeight = Math.max(shelfHeight, size.getHeight());
+		}
+		return i;
+	}
+
+}
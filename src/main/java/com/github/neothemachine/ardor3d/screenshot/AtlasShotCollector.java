@@ -0,0 +1,137 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Collects small shots which are submitted independently, from any number of
+ * threads, and renders them together with
+ * {@link ScreenshotCanvasPool#takeAtlasShots(IntDimension, List, List)}.
+ *
+ * The collected shots are rendered as soon as the next one doesn't fit into
+ * the atlas any more, or when the first of them waited for the linger time.
+ * A failing request fails all shots of its atlas.
+ * The threads are created with the first request.
+ */
+public class AtlasShotCollector {
+
+	private final ScreenshotCanvasPool pool;
+
+	private final IntDimension atlasSize;
+
+	private final long lingerMillis;
+
+	// renders the atlases and flushes them after the linger time
+	private ScheduledExecutorService executor;
+
+	private List<ShotRequest> requests = new ArrayList<ShotRequest>();
+	private List<IntDimension> sizes = new ArrayList<IntDimension>();
+	private List<SettableFuture<BufferedImage>> futures = new ArrayList<SettableFuture<BufferedImage>>();
+
+	private ScheduledFuture<?> lingerTask;
+
+	private boolean isShutdown = false;
+
+	/**
+	 * @param lingerMillis
+	 *            how long a shot waits for others to fill its atlas
+	 */
+	public AtlasShotCollector(ScreenshotCanvasPool pool, IntDimension atlasSize, long lingerMillis) {
+		this.pool = pool;
+		this.atlasSize = atlasSize;
+		this.lingerMillis = lingerMillis;
+	}
+
+	/**
+	 * @return the image of the request once its atlas was rendered
+	 * @throws IllegalArgumentException
+	 *             if the image is larger than the atlas
+	 */
+	public synchronized ListenableFuture<BufferedImage> submit(ShotRequest request, IntDimension size) {
+		if (isShutdown) {
+			throw new IllegalStateException("Collector is shut down");
+		}
+		AtlasPacker.pack(Collections.singletonList(size), 0, atlasSize, null);
+		if (executor == null) {
+			executor = Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder()
+					.setDaemon(true).setNameFormat("atlas-collector-%d").build());
+		}
+
+		sizes.add(size);
+		if (AtlasPacker.pack(sizes, 0, atlasSize, null) < sizes.size()) {
+			sizes.remove(sizes.size() - 1);
+			flush();
+			sizes.add(size);
+		}
+		requests.add(request);
+		SettableFuture<BufferedImage> future = SettableFuture.create();
+		futures.add(future);
+
+		if (lingerTask == null) {
+			lingerTask = executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, lingerMillis, TimeUnit.MILLISECONDS);
+		}
+		return future;
+	}
+
+	/**
+	 * Renders the collected shots without waiting for more.
+	 */
+	public synchronized void flush() {
+		if (lingerTask != null) {
+			lingerTask.cancel(false);
+			lingerTask = null;
+		}
+		if (requests.isEmpty()) {
+			return;
+		}
+		final List<ShotRequest> batchRequests = requests;
+		final List<IntDimension> batchSizes = sizes;
+		final List<SettableFuture<BufferedImage>> batchFutures = futures;
+		requests = new ArrayList<ShotRequest>();
+		sizes = new ArrayList<IntDimension>();
+		futures = new ArrayList<SettableFuture<BufferedImage>>();
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					List<BufferedImage> images = pool.takeAtlasShots(atlasSize, batchRequests, batchSizes);
+					for (int i = 0; i < images.size(); i++) {
+						batchFutures.get(i).set(images.get(i));
+					}
+				} catch (RuntimeException e) {
+					for (SettableFuture<BufferedImage> future : batchFutures) {
+						future.setException(e);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Renders the collected shots and stops the threads afterwards.
+	 */
+	public synchronized void shutdown() {
+		flush();
+		isShutdown = true;
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+/**
+ * Bookkeeping of {@link ScreenshotCanvasPool} for one of its canvases.
+ *
+ * Times are nanoseconds of the ticker of the pool. Entries are only
+ * modified while holding the pool lock.
+ */
+public final class CanvasEntry {
+
+	private final ScreenshotCanvas canvas;
+	private final long createNanos;
+
+	private Object state = null;
+	private long stateNanos = 0;
+	private int leaseCount = 0;
+	private int stateHits = 0;
+	private long leasedAt = 0;
+	private long returnedAt;
+
+	CanvasEntry(ScreenshotCanvas canvas, long createNanos, long now) {
+		this.canvas = canvas;
+		this.createNanos = createNanos;
+		this.returnedAt = now;
+	}
+
+	public ScreenshotCanvas getCanvas() {
+		return canvas;
+	}
+
+	public IntDimension getSize() {
+		return canvas.getSize();
+	}
+
+	/**
+	 * The state the canvas was returned with, null if none.
+	 */
+	public Object getState() {
+		return state;
+	}
+
+	/**
+	 * How long it took to create the canvas.
+	 */
+	public long getCreateNanos() {
+		return createNanos;
+	}
+
+	/**
+	 * How long the canvas was in use since its state was built from scratch,
+	 * which is a measure of how expensive it is to rebuild the state.
+	 */
+	public long getStateNanos() {
+		return stateNanos;
+	}
+
+	/**
+	 * How often the canvas was handed out.
+	 */
+	public int getLeaseCount() {
+		return leaseCount;
+	}
+
+	/**
+	 * How often the current state of the canvas matched in getCanvasIfMatch().
+	 */
+	public int getStateHits() {
+		return stateHits;
+	}
+
+	/**
+	 * When the canvas was returned to the pool the last time.
+	 */
+	public long getReturnedAt() {
+		return returnedAt;
+	}
+
+	void leased(boolean keepState, long now) {
+		leaseCount++;
+		leasedAt = now;
+		if (keepState) {
+			stateHits++;
+		} else {
+			state = null;
+			stateNanos = 0;
+			stateHits = 0;
+		}
+	}
+
+	void returned(Object newState, long now) {
+		returnedAt = now;
+		if (newState == null) {
+			stateNanos = 0;
+		} else {
+			stateNanos += returnedAt - leasedAt;
+		}
+		state = newState;
+	}
+
+}
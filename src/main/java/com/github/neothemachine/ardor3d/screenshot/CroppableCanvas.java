@@ -0,0 +1,26 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+/**
+ * A canvas which can render and export images smaller than itself, so that
+ * one canvas can serve several sizes without being resized.
+ * 
+ * {@link ScreenshotCanvas#getSize()} keeps returning the full size, the size
+ * of the images is {@link #getCropSize()}.
+ */
+public interface CroppableCanvas {
+
+	/**
+	 * Renders and exports only a region of the given size from now on.
+	 * The camera is resized to the region.
+	 * @param size must fit into the canvas, null for the full canvas
+	 */
+	void setCropSize(IntDimension size);
+
+	/**
+	 * The size of the images the canvas renders and exports, which is the
+	 * full size if it isn't cropped. Use it e.g. for the aspect ratio of a
+	 * camera.
+	 */
+	IntDimension getCropSize();
+
+}
@@ -0,0 +1,82 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.util.Collection;
+
+/**
+ * Chooses which unused canvas {@link ScreenshotCanvasPool} disposes when it
+ * is full and needs a canvas of another size.
+ */
+public interface EvictionPolicy {
+
+	/**
+	 * @param candidates
+	 *            the unused canvases, never empty
+	 * @return the entry of the canvas to dispose
+	 */
+	CanvasEntry selectVictim(Collection<CanvasEntry> candidates);
+
+	/**
+	 * Evicts the canvas which was returned the longest time ago.
+	 */
+	public static class LeastRecentlyUsed implements EvictionPolicy {
+		@Override
+		public CanvasEntry selectVictim(Collection<CanvasEntry> candidates) {
+			CanvasEntry victim = null;
+			for (CanvasEntry entry : candidates) {
+				if (victim == null || entry.getReturnedAt() - victim.getReturnedAt() < 0) {
+					victim = entry;
+				}
+			}
+			return victim;
+		}
+	}
+
+	/**
+	 * Evicts the canvas which was handed out the least often, the least
+	 * recently used one of those.
+	 */
+	public static class LeastFrequentlyUsed implements EvictionPolicy {
+		@Override
+		public CanvasEntry selectVictim(Collection<CanvasEntry> candidates) {
+			CanvasEntry victim = null;
+			for (CanvasEntry entry : candidates) {
+				if (victim == null || entry.getLeaseCount() < victim.getLeaseCount()
+						|| (entry.getLeaseCount() == victim.getLeaseCount()
+							&& entry.getReturnedAt() - victim.getReturnedAt() < 0)) {
+					victim = entry;
+				}
+			}
+			return victim;
+		}
+	}
+
+	/**
+	 * Evicts the canvas which is the cheapest to rebuild: the time it took to
+	 * create it plus the time invested into its state, the latter weighted
+	 * by how often the state was reused. The size of a canvas only counts
+	 * through the creation time which was measured for it. Ties go to the
+	 * least recently used canvas.
+	 */
+	public static class CostWeighted implements EvictionPolicy {
+		@Override
+		public CanvasEntry selectVictim(Collection<CanvasEntry> candidates) {
+			CanvasEntry victim = null;
+			double victimCost = 0;
+			for (CanvasEntry entry : candidates) {
+				double cost = cost(entry);
+				if (victim == null || cost < victimCost
+						|| (cost == victimCost && entry.getReturnedAt() - victim.getReturnedAt() < 0)) {
+					victim = entry;
+					victimCost = cost;
+				}
+			}
+			return victim;
+		}
+
+		protected double cost(CanvasEntry entry) {
+			double stateCost = entry.getState() == null ? 0 : entry.getStateNanos();
+			return entry.getCreateNanos() + stateCost * (1 + entry.getStateHits());
+		}
+	}
+
+}
@@ -0,0 +1,193 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ardor3d.framework.Canvas;
+import com.ardor3d.framework.CanvasRenderer;
+import com.ardor3d.framework.FrameHandler;
+import com.ardor3d.image.ImageDataFormat;
+import com.ardor3d.renderer.Renderer;
+import com.ardor3d.scenegraph.Node;
+import com.ardor3d.util.GameTaskQueueManager;
+import com.ardor3d.util.screen.ScreenExporter;
+import com.github.neothemachine.ardor3d.screenshot.UpdateableCanvas.CanvasUpdate;
+import com.github.neothemachine.ardor3d.screenshot.UpdateableCanvas.SceneGraphUpdate;
+
+/**
+ * The queued updates and the shots of canvases which render their frames
+ * with a {@link FrameHandler} on the thread calling takeShot().
+ *
+ * The canvas calls {@link #updateScene()} from its Updater and
+ * {@link #applyCamera(CanvasRenderer, Renderer)} and
+ * {@link #exportIfRequested(Renderer)} from its Scene.
+ */
+final class FrameHandlerShots {
+
+	private final Object queueOwner;
+
+	private final Node root;
+
+	private final ScreenShotBufferExporter exporter = new ScreenShotBufferExporter(ImageDataFormat.BGRA);
+
+	private boolean isShotRequested = false;
+
+	// the shot being rendered if it can be cancelled, else null
+	private volatile Future<?> shot = null;
+
+	// a shot which may be postponed by one frame if queued updates are still pending
+	private boolean isShotDeferrable = false;
+
+	private volatile boolean singleFrameShots = false;
+
+	// queued updates which haven't run yet
+	private final AtomicInteger pendingUpdates = new AtomicInteger();
+
+	// scene was updated in this frame, only accessed by the update thread
+	private boolean isSceneDirty = false;
+
+	private volatile ScreenshotMetrics metrics;
+
+	/**
+	 * @param queueOwner
+	 *            the key of the GameTaskQueueManager of the canvas
+	 */
+	FrameHandlerShots(Object queueOwner, Node root) {
+		this.queueOwner = queueOwner;
+		this.root = root;
+	}
+
+	ScreenShotBufferExporter getExporter() {
+		return exporter;
+	}
+
+	void setSingleFrameShots(boolean singleFrame) {
+		this.singleFrameShots = singleFrame;
+	}
+
+	void setMetrics(ScreenshotMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	void queueSceneUpdate(final SceneGraphUpdate update) {
+		pendingUpdates.incrementAndGet();
+		GameTaskQueueManager.getManager(queueOwner).update(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				try {
+					update.update(root);
+				} finally {
+					// a failed update may have changed the scene all the same
+					isSceneDirty = true;
+					pendingUpdates.decrementAndGet();
+				}
+				return null;
+			}
+		});
+	}
+
+	void queueCanvasUpdate(final CanvasUpdate update, final Canvas canvas) {
+		pendingUpdates.incrementAndGet();
+		GameTaskQueueManager.getManager(queueOwner).render(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				try {
+					update.update(canvas);
+				} finally {
+					pendingUpdates.decrementAndGet();
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Runs one geometric update for all scene updates of this frame.
+	 */
+	void updateScene() {
+		if (isSceneDirty) {
+			root.updateGeometricState(0);
+			isSceneDirty = false;
+		}
+	}
+
+	/**
+	 * Canvas updates may have changed the camera after the canvas renderer
+	 * applied it, re-applies it so that they take effect in this frame already.
+	 */
+	void applyCamera(CanvasRenderer canvasRenderer, Renderer renderer) {
+		canvasRenderer.getCamera().apply(renderer);
+	}
+
+	/**
+	 * Exports the frame drawn by the renderer if a shot is due.
+	 */
+	void exportIfRequested(Renderer renderer) {
+		if (isShotRequested && isCancelled()) {
+			isShotRequested = false;
+		}
+		if (isShotRequested && !(isShotDeferrable && pendingUpdates.get() > 0)) {
+			// force any waiting scene elements to be rendered.
+			renderer.renderBuckets();
+			long start = System.nanoTime();
+			ScreenExporter.exportCurrentScreen(renderer, exporter);
+			ScreenshotMetrics m = metrics;
+			if (m != null) {
+				long exportNanos = exporter.getLastExportNanos();
+				m.recordShot(System.nanoTime() - start - exportNanos, exportNanos);
+			}
+			isShotRequested = false;
+		}
+	}
+
+	/**
+	 * Drops the shot of a frame which failed.
+	 */
+	void frameFailed() {
+		isShotRequested = false;
+	}
+
+	/**
+	 * Renders the frames of one shot, the image is the last one of the
+	 * exporter afterwards. The shot is checked for cancellation between the
+	 * frames and before the readback.
+	 *
+	 * @param shot
+	 *            the future of the shot, null if it can't be cancelled
+	 * @return false if the shot was cancelled in the meantime
+	 */
+	boolean renderShot(FrameHandler frameHandler, Future<?> shot) {
+		this.shot = shot;
+		try {
+			if (singleFrameShots) {
+				isShotDeferrable = true;
+				isShotRequested = true;
+				frameHandler.updateFrame();
+				isShotDeferrable = false;
+				if (isShotRequested && !isCancelled()) {
+					// queued updates queued further updates, see exportIfRequested()
+					frameHandler.updateFrame();
+				}
+			} else {
+				// only works after the 2nd frame
+				frameHandler.updateFrame();
+				if (isCancelled()) {
+					return false;
+				}
+				isShotRequested = true;
+				frameHandler.updateFrame();
+			}
+			return !isCancelled();
+		} finally {
+			isShotRequested = false;
+			this.shot = null;
+		}
+	}
+
+	private boolean isCancelled() {
+		Future<?> s = shot;
+		return s != null && s.isCancelled();
+	}
+
+}
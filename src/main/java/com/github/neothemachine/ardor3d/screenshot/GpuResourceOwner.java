@@ -0,0 +1,15 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+/**
+ * A canvas or context which tracks the OpenGL objects it allocated, so that
+ * its GPU memory can be reported, see {@link ScreenshotCanvasPool#getGpuBytes()}.
+ * What is tracked is described at {@link GpuResourceTracker}.
+ */
+public interface GpuResourceOwner {
+
+	/**
+	 * @return the tracker, which is empty after the owner was disposed
+	 */
+	GpuResourceTracker getGpuResources();
+
+}
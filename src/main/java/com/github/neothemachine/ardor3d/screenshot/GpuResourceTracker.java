@@ -0,0 +1,118 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the OpenGL objects a canvas allocated and how many bytes of GPU
+ * memory each of them holds, so that leaks show up and the memory in use can
+ * be reported. The byte counts are estimates from the sizes and formats of
+ * the buffers, drivers may allocate more.
+ *
+ * Only the objects the canvases create themselves are tracked: framebuffers,
+ * renderbuffers, pixel buffers and Pbuffers. Textures, vertex buffers and
+ * display lists which Ardor3D uploads through the render context of a canvas
+ * are not, as Ardor3D creates and deletes them on its own, and with a
+ * {@link SharedHeadlessContext} they belong to all canvases at once.
+ *
+ * Objects are recorded on the render thread and can be queried from any
+ * thread.
+ */
+public class GpuResourceTracker {
+
+	public enum Kind {
+		FRAMEBUFFER, RENDERBUFFER, PIXEL_BUFFER, PBUFFER
+	}
+
+	// bytes of the live objects by their ids
+	private final Map<Kind, Map<Integer, Long>> live = new EnumMap<Kind, Map<Integer, Long>>(Kind.class);
+
+	private long liveBytes = 0;
+
+	private ScreenshotMetrics metrics;
+
+	// reports objects freed without being allocated
+	private final Logger log;
+
+	public GpuResourceTracker() {
+		this(LoggerFactory.getLogger(GpuResourceTracker.class));
+	}
+
+	GpuResourceTracker(Logger log) {
+		this.log = log;
+		for (Kind kind : Kind.values()) {
+			live.put(kind, new HashMap<Integer, Long>());
+		}
+	}
+
+	/**
+	 * Records that an object was created or that its storage was
+	 * reallocated, which replaces the bytes recorded before.
+	 */
+	public synchronized void allocated(Kind kind, int id, long bytes) {
+		Long old = live.get(kind).put(id, bytes);
+		add(bytes - (old == null ? 0 : old));
+	}
+
+	/**
+	 * Records that an object was deleted.
+	 */
+	public synchronized void freed(Kind kind, int id) {
+		Long bytes = live.get(kind).remove(id);
+		if (bytes == null) {
+			log.warn("Freed {} {} which wasn't allocated", kind, id);
+			return;
+		}
+		add(-bytes);
+	}
+
+	private void add(long delta) {
+		liveBytes += delta;
+		if (metrics != null) {
+			metrics.recordGpuBytes(delta);
+		}
+	}
+
+	/**
+	 * Reports the live bytes to the given metrics from now on, and moves
+	 * them there from the metrics set before.
+	 */
+	public synchronized void setMetrics(ScreenshotMetrics metrics) {
+		if (this.metrics != null) {
+			this.metrics.recordGpuBytes(-liveBytes);
+		}
+		this.metrics = metrics;
+		if (metrics != null) {
+			metrics.recordGpuBytes(liveBytes);
+		}
+	}
+
+	public synchronized long getLiveBytes() {
+		return liveBytes;
+	}
+
+	public synchronized int getLiveObjects() {
+		int count = 0;
+		for (Map<Integer, Long> objects : live.values()) {
+			count += objects.size();
+		}
+		return count;
+	}
+
+	public synchronized int getLiveObjects(Kind kind) {
+		return live.get(kind).size();
+	}
+
+	/**
+	 * Estimated bytes of a renderbuffer with 4 bytes per pixel and sample,
+	 * which holds for RGBA8 and for depth which drivers store as 24 or 32 bits.
+	 */
+	static long renderbufferBytes(int width, int height, int samples) {
+		return 4L * width * height * Math.max(samples, 1);
+	}
+
+}
@@ -0,0 +1,83 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Size-keyed pool of TYPE_INT_ARGB images used as screenshot targets.
+ *
+ * Images are handed out as {@link PooledImage} leases. As long as callers
+ * release their leases, a warm pool doesn't allocate any pixel memory
+ * when taking screenshots.
+ *
+ * This class is thread-safe.
+ *
+ * @author maik
+ * @see PooledImageCanvas#takeShot(ImagePool)
+ */
+public class ImagePool {
+
+	private final int maxImagesPerSize;
+
+	private final Map<IntDimension, Deque<PooledImage>> free = new HashMap<IntDimension, Deque<PooledImage>>();
+
+	public ImagePool() {
+		this(4);
+	}
+
+	/**
+	 * @param maxImagesPerSize
+	 *            how many released images of the same size are kept for
+	 *            reuse, further ones are left to the garbage collector
+	 */
+	public ImagePool(int maxImagesPerSize) {
+		if (maxImagesPerSize < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.maxImagesPerSize = maxImagesPerSize;
+	}
+
+	/**
+	 * Leases an image of the given size, creating a new one if none is free.
+	 * The image content is undefined.
+	 */
+	public synchronized PooledImage lease(int width, int height) {
+		Deque<PooledImage> images = this.free.get(new IntDimension(width, height));
+		PooledImage image = images == null ? null : images.pollLast();
+		if (image == null) {
+			image = new PooledImage(this, new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_ARGB));
+		}
+		image.setLeased(true);
+		return image;
+	}
+
+	synchronized void release(PooledImage image) {
+		if (!image.isLeased()) {
+			throw new IllegalStateException("Image was already released");
+		}
+		image.setLeased(false);
+
+		BufferedImage img = image.getImage();
+		IntDimension size = new IntDimension(img.getWidth(), img.getHeight());
+		Deque<PooledImage> images = this.free.get(size);
+		if (images == null) {
+			images = new ArrayDeque<PooledImage>();
+			this.free.put(size, images);
+		}
+		if (images.size() < this.maxImagesPerSize) {
+			images.addLast(image);
+		}
+	}
+
+	/**
+	 * Drops all free images. Leased images are unaffected.
+	 */
+	public synchronized void clear() {
+		this.free.clear();
+	}
+
+}
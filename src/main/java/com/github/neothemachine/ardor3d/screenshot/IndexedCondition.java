@@ -0,0 +1,19 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.util.Set;
+
+import com.google.common.base.Predicate;
+
+/**
+ * A condition of {@link ScreenshotCanvasPool#getCanvasIfMatch} which is only
+ * satisfied by {@link IndexedState}s having all of the given keys. The pool
+ * then only tests the states it finds through the index of the keys.
+ */
+public interface IndexedCondition<T> extends Predicate<T> {
+
+	/**
+	 * Keys the index keys of a matching state all contain.
+	 */
+	Set<?> getRequiredKeys();
+
+}
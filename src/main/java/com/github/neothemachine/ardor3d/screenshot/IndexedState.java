@@ -0,0 +1,17 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.util.Set;
+
+/**
+ * A canvas state which {@link ScreenshotCanvasPool} indexes by its keys, for
+ * example the IDs of the loaded assets. This allows finding canvases with
+ * matching states without looking at every unused canvas.
+ * 
+ * The keys are read when the canvas is returned and must not change while the
+ * canvas is in the pool.
+ */
+public interface IndexedState {
+
+	Set<?> getIndexKeys();
+
+}
@@ -2,10 +2,14 @@ package com.github.neothemachine.ardor3d.screenshot;
 
 import java.awt.image.BufferedImage;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.inject.Inject;
 
@@ -38,28 +42,30 @@ import com.ardor3d.util.GameTaskQueueManager;
 import com.ardor3d.util.ReadOnlyTimer;
 import com.ardor3d.util.Timer;
 import com.ardor3d.util.scenegraph.DisplayListDelegate;
-import com.ardor3d.util.screen.ScreenExporter;
 import com.ardor3d.util.stat.StatCollector;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.assistedinject.Assisted;
 
 /**
  * Experimental JoglNewtWindow offscreen screenshot canvas (uses pbuffers).
  * 
  */
-public class JoglNewtScreenshotCanvas implements ScreenshotCanvas/*, ResizableCanvas*/, Updater, Scene {
+public class JoglNewtScreenshotCanvas implements ScreenshotCanvas, AsyncCanvas, PooledImageCanvas,
+		SingleFrameCanvas/*, ResizableCanvas*/, AsyncShotExecutor.CancellableCanvas, Updater, Scene {
 	private static final Logger log = LoggerFactory.getLogger(JoglNewtScreenshotCanvas.class);	
 	
 	private IntDimension size;
 		
     private final FrameHandler _frameHandler = new FrameHandler(new Timer());
-    private final ScreenShotBufferExporter _screenShotExp = new ScreenShotBufferExporter();
 
     public JoglNewtWindow canvas;
     private final Node root = new Node();
+
+    private final FrameHandlerShots shots = new FrameHandlerShots(this, root);
     
     private final BasicPassManager passManager = new BasicPassManager();
     
-    private boolean isShotRequested = false;
+    private final AsyncShotExecutor asyncShots = new AsyncShotExecutor(this);
     
     private Exception lastUncaughtException = null;
     
@@ -127,6 +133,8 @@ public class JoglNewtScreenshotCanvas implements ScreenshotCanvas/*, ResizableCa
        
        	GameTaskQueueManager.getManager(this).getQueue(GameTaskQueue.UPDATE)
         		.execute();
+
+        shots.updateScene();
        	
        	passManager.updatePasses(0);
     }
@@ -143,6 +151,8 @@ public class JoglNewtScreenshotCanvas implements ScreenshotCanvas/*, ResizableCa
 	    	// see http://ardor3d.com/forums/viewtopic.php?f=13&t=1020&p=16253#p16253
 	    	GameTaskQueueManager.getManager(canvas.getCanvasRenderer().getRenderContext()).
 	    		getQueue(GameTaskQueue.RENDER).execute(renderer);
+
+	    	shots.applyCamera(canvas.getCanvasRenderer(), renderer);
 	        
 	        // Clean up card garbage such as textures, vbos, etc.
 	        ContextGarbageCollector.doRuntimeCleanup(renderer);
@@ -151,18 +161,11 @@ public class JoglNewtScreenshotCanvas implements ScreenshotCanvas/*, ResizableCa
 	        passManager.renderPasses(renderer);
 //	    	root.draw(renderer);
 	
-	        if (isShotRequested) {
-	            // force any waiting scene elements to be rendered.
-	            renderer.renderBuckets();
-	            ScreenExporter.exportCurrentScreen(canvas.getCanvasRenderer().getRenderer(), _screenShotExp);
-	            isShotRequested = false;
-	        }
+	        shots.exportIfRequested(renderer);
     	} catch (Exception e) {
     		log.error(e.getMessage(), e);
     		lastUncaughtException = e;
-    		if (isShotRequested) {
-   				isShotRequested = false;
-    		}
+    		shots.frameFailed();
     	}
         return true;
     }
@@ -218,25 +221,25 @@ public class JoglNewtScreenshotCanvas implements ScreenshotCanvas/*, ResizableCa
 
 	@Override
 	public void queueSceneUpdate(final SceneGraphUpdate update) {
-		GameTaskQueueManager.getManager(this).update(new Callable<Void>() {
-			@Override
-			public Void call() throws Exception {
-				update.update(root);
-				root.updateGeometricState(0);
-				return null;
-			}
-		});
+		shots.queueSceneUpdate(update);
 	}
 
 	@Override
 	public void queueCanvasUpdate(final CanvasUpdate update) {
-		GameTaskQueueManager.getManager(this).render(new Callable<Void>() {
-			@Override
-			public Void call() throws Exception {
-				update.update(canvas);
-				return null;
-			}			
-		});
+		shots.queueCanvasUpdate(update, canvas);
+	}
+
+	@Override
+	public void setSingleFrameShots(boolean singleFrame) {
+		shots.setSingleFrameShots(singleFrame);
+	}
+
+	/**
+	 * Sets where the canvas records the times of its shots, null for nowhere.
+	 */
+	@com.google.inject.Inject(optional = true)
+	public void setMetrics(ScreenshotMetrics metrics) {
+		shots.setMetrics(metrics);
 	}
 
     /**
@@ -247,16 +250,56 @@ public class JoglNewtScreenshotCanvas implements ScreenshotCanvas/*, ResizableCa
 	@Override
     public synchronized BufferedImage takeShot() {
 	    
-        // only works after the 2nd frame
-        _frameHandler.updateFrame();
-        isShotRequested = true;
-        _frameHandler.updateFrame();
+        shots.renderShot(_frameHandler, null);
 		
         checkException();
 			
-    	return _screenShotExp.getLastImage();
+    	return shots.getExporter().getLastImage();
     }
-    
+
+    @Override
+    public synchronized BufferedImage takeShot(Future<?> shot) {
+        boolean done = shots.renderShot(_frameHandler, shot);
+        checkException();
+        if (!done) {
+            throw new CancellationException();
+        }
+        return shots.getExporter().getLastImage();
+    }
+
+    @Override
+    public BufferedImage takeShot(long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        // shots are taken on the calling thread, use the async thread to be able to stop waiting
+        return ShotFutures.get(asyncShots.submit(new ShotRequest()), timeout, unit);
+    }
+
+    @Override
+    public synchronized PooledImage takeShot(ImagePool pool) {
+        shots.getExporter().setImagePool(pool);
+        try {
+            takeShot();
+        } finally {
+            shots.getExporter().setImagePool(null);
+        }
+        return shots.getExporter().getLastPooledImage();
+    }
+
+    @Override
+    public synchronized List<BufferedImage> takeShots(List<ShotRequest> requests) {
+        List<BufferedImage> images = new ArrayList<BufferedImage>(requests.size());
+        for (ShotRequest request : requests) {
+            request.queueOn(this);
+            images.add(takeShot());
+        }
+        return images;
+    }
+
+    @Override
+    public ListenableFuture<BufferedImage> takeShotAsync(ShotRequest request) {
+        return asyncShots.submit(request);
+    }
+
     @Override
     public synchronized void runQueues() {
         
@@ -277,6 +320,7 @@ public class JoglNewtScreenshotCanvas implements ScreenshotCanvas/*, ResizableCa
 
 	@Override
 	public void dispose() {
+		asyncShots.shutdown();
 		try {
 	    	GameTaskQueueManager.getManager(this).getQueue(GameTaskQueue.UPDATE).
     	       removeExecutionExceptionListener(executionExceptionListener);
@@ -0,0 +1,79 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with one bucket per power of two
+ * nanoseconds. Percentiles are the upper bound of their bucket, so they are
+ * at most twice the real value.
+ * 
+ * In JMX, a histogram shows up as its getters.
+ */
+public final class LatencyHistogram {
+
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos) - (nanos == 0 ? 0 : 1));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public double getMeanMillis() {
+		long n = count.get();
+		return n == 0 ? 0 : toMillis(totalNanos.get() / n);
+	}
+
+	public double getMaxMillis() {
+		return toMillis(maxNanos.get());
+	}
+
+	public double getMedianMillis() {
+		return getPercentileMillis(0.5);
+	}
+
+	public double getP99Millis() {
+		return getPercentileMillis(0.99);
+	}
+
+	/**
+	 * @param fraction
+	 *            between 0 and 1
+	 */
+	public double getPercentileMillis(double fraction) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(fraction * n);
+		long seen = 0;
+		for (int i = 0; i < 64; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				// bucket i holds [2^i, 2^(i+1))
+				return toMillis(Math.min(i >= 62 ? Long.MAX_VALUE : (2L << i) - 1, maxNanos.get()));
+			}
+		}
+		return toMillis(maxNanos.get());
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+}
@@ -15,12 +15,16 @@ package com.github.neothemachine.ardor3d.screenshot;
  * LICENSE file or at <http://www.ardor3d.com/LICENSE>.
  */
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.util.LinkedList;
 
 import org.lwjgl.LWJGLException;
+import org.lwjgl.opengl.ARBBufferObject;
 import org.lwjgl.opengl.ARBMultisample;
+import org.lwjgl.opengl.ARBPixelBufferObject;
 import org.lwjgl.opengl.EXTFramebufferBlit;
 import org.lwjgl.opengl.EXTFramebufferMultisample;
 import org.lwjgl.opengl.EXTFramebufferObject;
@@ -44,11 +48,13 @@ import com.ardor3d.renderer.lwjgl.LwjglRenderer;
 import com.ardor3d.renderer.lwjgl.LwjglTextureRenderer;
 import com.ardor3d.util.Ardor3dException;
 import com.ardor3d.util.geom.BufferUtils;
+import com.github.neothemachine.ardor3d.screenshot.GpuResourceTracker.Kind;
 
 /**
  * <p>
- * A "canvas" class for use in drawing Scene data to an off-screen target. The data is read back after each call to draw
- * into a local IntBuffer for use.
+ * A "canvas" class for use in drawing Scene data to an off-screen target. The data is read back after each call to
+ * {@link #draw()} or {@link #draw(boolean) draw(true)} into a local IntBuffer for use. Its pixels are ARGB ints (read
+ * as GL_BGRA into a little-endian buffer).
  * </p>
  * 
  * <p>
@@ -64,9 +70,23 @@ public class LwjglHeadlessCanvas {
 
     protected int _fboID, _depthRBID, _colorRBID;
     protected int _msfboID, _msdepthRBID, _mscolorRBID;
+    protected int _flipfboID, _flipcolorRBID;
     protected boolean _useMSAA = false;
+    protected boolean _flipRows;
+    protected int _width, _height;
+    protected int _activeWidth, _activeHeight;
     protected IntBuffer _data;
     protected Pbuffer _buff;
+    protected final SharedHeadlessContext _sharedContext;
+    protected final GpuResourceTracker _resources;
+
+    /** Number of pixel buffer objects used for asynchronous readback. */
+    public static final int READBACK_RING_SIZE = 2;
+
+    protected int[] _pboIDs = new int[0];
+    protected int[] _pboWidths, _pboHeights;
+    protected int _pboNext, _pboPending;
+    protected ByteBuffer _pboMapped;
 
     /**
      * Construct a new LwjglHeadlessCanvas. Only width, height, alpha, depth and stencil are used. Samples will be
@@ -78,29 +98,100 @@ public class LwjglHeadlessCanvas {
      *            the scene we will render.
      */
     public LwjglHeadlessCanvas(final DisplaySettings settings, final Scene scene) {
+        this(settings, scene, false);
+    }
+
+    /**
+     * Construct a new LwjglHeadlessCanvas which optionally flips the rendered image vertically on the GPU, so that
+     * the data read back is ordered top to bottom like in a BufferedImage. Flipping needs FBO blit support and is
+     * silently skipped without it, see {@link #isFlippingRows()}.
+     * 
+     * @param settings
+     *            the settings to use.
+     * @param scene
+     *            the scene we will render.
+     * @param flipRows
+     *            whether to flip the image rows while resolving it.
+     */
+    public LwjglHeadlessCanvas(final DisplaySettings settings, final Scene scene, final boolean flipRows) {
+        this(settings, scene, flipRows, null);
+    }
+
+    /**
+     * Construct a new LwjglHeadlessCanvas whose framebuffers live in the given shared context instead of an own
+     * Pbuffer context. Textures and buffers are shared with all other canvases of the context. Must be called on the
+     * thread of the context, like all other methods.
+     * 
+     * @param settings
+     *            the settings to use.
+     * @param scene
+     *            the scene we will render.
+     * @param flipRows
+     *            whether to flip the image rows while resolving it.
+     * @param sharedContext
+     *            the context to use, or null to create an own one.
+     */
+    public LwjglHeadlessCanvas(final DisplaySettings settings, final Scene scene, final boolean flipRows,
+            final SharedHeadlessContext sharedContext) {
+        this(settings, scene, flipRows, sharedContext, new GpuResourceTracker());
+    }
+
+    /**
+     * Construct a new LwjglHeadlessCanvas which records its OpenGL objects in the given tracker, which can then be
+     * queried before the constructor returns on the render thread.
+     * 
+     * @param settings
+     *            the settings to use.
+     * @param scene
+     *            the scene we will render.
+     * @param flipRows
+     *            whether to flip the image rows while resolving it.
+     * @param sharedContext
+     *            the context to use, or null to create an own one.
+     * @param resources
+     *            the tracker to record the OpenGL objects in.
+     */
+    public LwjglHeadlessCanvas(final DisplaySettings settings, final Scene scene, final boolean flipRows,
+            final SharedHeadlessContext sharedContext, final GpuResourceTracker resources) {
+        _resources = resources;
         _scene = scene;
         _settings = settings;
+        _flipRows = flipRows;
+        _sharedContext = sharedContext;
         init();
     }
 
     protected void init() {
         final int width = _settings.getWidth();
         final int height = _settings.getHeight();
-
-        try {
-            // Create a Pbuffer so we can have a valid gl context to work with
-            final PixelFormat format = new PixelFormat(_settings.getAlphaBits(), _settings.getDepthBits(),
-                    _settings.getStencilBits());
-            _buff = new Pbuffer(1, 1, format, null);
-            _buff.makeCurrent();
-        } catch (final LWJGLException ex) {
-            ex.printStackTrace();
+        _width = width;
+        _height = height;
+        _activeWidth = width;
+        _activeHeight = height;
+
+        final LwjglContextCapabilities caps;
+        final RenderContext currentContext;
+        if (_sharedContext != null) {
+            caps = _sharedContext.getCapabilities();
+            currentContext = _sharedContext.getRenderContext();
+        } else {
+            try {
+                // Create a Pbuffer so we can have a valid gl context to work with
+                final PixelFormat format = new PixelFormat(_settings.getAlphaBits(), _settings.getDepthBits(),
+                        _settings.getStencilBits());
+                _buff = new Pbuffer(1, 1, format, null);
+                // its 1x1 surface is negligible, it's only tracked to find leaks
+                _resources.allocated(Kind.PBUFFER, 0, 0);
+                _buff.makeCurrent();
+            } catch (final LWJGLException ex) {
+                ex.printStackTrace();
+            }
+
+            // Set up our Ardor3D context and capabilities objects
+            caps = new LwjglContextCapabilities(GLContext.getCapabilities());
+            currentContext = new RenderContext(this, caps, null);
         }
 
-        // Set up our Ardor3D context and capabilities objects
-        final LwjglContextCapabilities caps = new LwjglContextCapabilities(GLContext.getCapabilities());
-        final RenderContext currentContext = new RenderContext(this, caps, null);
-
         if (!caps.isFBOSupported()) {
             throw new Ardor3dException("Headless requires FBO support.");
         }
@@ -109,12 +200,17 @@ public class LwjglHeadlessCanvas {
             _useMSAA = true;
         }
 
+        if (!caps.isFBOBlitSupported()) {
+            _flipRows = false;
+        }
+
         // Init our FBO.
         final IntBuffer buffer = BufferUtils.createIntBuffer(1);
         EXTFramebufferObject.glGenFramebuffersEXT(buffer); // generate id
 
         // Bind the FBO
         _fboID = buffer.get(0);
+        _resources.allocated(Kind.FRAMEBUFFER, _fboID, 0);
         EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, _fboID);
 
         // initialize our color renderbuffer
@@ -123,6 +219,7 @@ public class LwjglHeadlessCanvas {
         EXTFramebufferObject.glBindRenderbufferEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT, _colorRBID);
         EXTFramebufferObject.glRenderbufferStorageEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT, GL11.GL_RGBA, width,
                 height);
+        _resources.allocated(Kind.RENDERBUFFER, _colorRBID, GpuResourceTracker.renderbufferBytes(width, height, 0));
 
         // Attach color renderbuffer to framebuffer
         EXTFramebufferObject.glFramebufferRenderbufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT,
@@ -134,6 +231,7 @@ public class LwjglHeadlessCanvas {
         EXTFramebufferObject.glBindRenderbufferEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT, _depthRBID);
         EXTFramebufferObject.glRenderbufferStorageEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT,
                 GL11.GL_DEPTH_COMPONENT, width, height);
+        _resources.allocated(Kind.RENDERBUFFER, _depthRBID, GpuResourceTracker.renderbufferBytes(width, height, 0));
 
         // Attach depth renderbuffer to framebuffer
         EXTFramebufferObject.glFramebufferRenderbufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT,
@@ -150,6 +248,7 @@ public class LwjglHeadlessCanvas {
 
             // Bind the ms FBO
             _msfboID = buffer.get(0);
+            _resources.allocated(Kind.FRAMEBUFFER, _msfboID, 0);
             EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, _msfboID);
 
             // initialize our ms color renderbuffer
@@ -158,6 +257,8 @@ public class LwjglHeadlessCanvas {
             EXTFramebufferObject.glBindRenderbufferEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT, _mscolorRBID);
             EXTFramebufferMultisample.glRenderbufferStorageMultisampleEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT,
                     _settings.getSamples(), GL11.GL_RGBA, width, height);
+            _resources.allocated(Kind.RENDERBUFFER, _mscolorRBID,
+                    GpuResourceTracker.renderbufferBytes(width, height, _settings.getSamples()));
 
             // Attach ms color renderbuffer to ms framebuffer
             EXTFramebufferObject.glFramebufferRenderbufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT,
@@ -170,6 +271,8 @@ public class LwjglHeadlessCanvas {
             EXTFramebufferObject.glBindRenderbufferEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT, _msdepthRBID);
             EXTFramebufferMultisample.glRenderbufferStorageMultisampleEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT,
                     _settings.getSamples(), GL11.GL_DEPTH_COMPONENT, width, height);
+            _resources.allocated(Kind.RENDERBUFFER, _msdepthRBID,
+                    GpuResourceTracker.renderbufferBytes(width, height, _settings.getSamples()));
 
             // Attach ms depth renderbuffer to ms framebuffer
             EXTFramebufferObject.glFramebufferRenderbufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT,
@@ -183,12 +286,44 @@ public class LwjglHeadlessCanvas {
             GL11.glEnable(ARBMultisample.GL_MULTISAMPLE_ARB);
         }
 
+        // A multisample resolve must not change the rectangle, so the flip is a separate color-only blit into its
+        // own FBO.
+        if (_flipRows) {
+
+            // Init our flip FBO.
+            EXTFramebufferObject.glGenFramebuffersEXT(buffer); // generate id
+
+            // Bind the flip FBO
+            _flipfboID = buffer.get(0);
+            _resources.allocated(Kind.FRAMEBUFFER, _flipfboID, 0);
+            EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, _flipfboID);
+
+            // initialize our flip color renderbuffer
+            EXTFramebufferObject.glGenRenderbuffersEXT(buffer); // generate id
+            _flipcolorRBID = buffer.get(0);
+            EXTFramebufferObject.glBindRenderbufferEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT, _flipcolorRBID);
+            EXTFramebufferObject.glRenderbufferStorageEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT, GL11.GL_RGBA,
+                    width, height);
+            _resources.allocated(Kind.RENDERBUFFER, _flipcolorRBID,
+                    GpuResourceTracker.renderbufferBytes(width, height, 0));
+
+            // Attach flip color renderbuffer to flip framebuffer
+            EXTFramebufferObject.glFramebufferRenderbufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT,
+                    EXTFramebufferObject.GL_COLOR_ATTACHMENT0_EXT, EXTFramebufferObject.GL_RENDERBUFFER_EXT,
+                    _flipcolorRBID);
+
+            // Check flip FBO complete
+            LwjglTextureRenderer.checkFBOComplete(_flipfboID);
+        }
+
         // Setup our data buffer for storing rendered image data.
         _data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
 
         // Add context to manager and set as active.
-        ContextManager.addContext(this, currentContext);
-        ContextManager.switchContext(this);
+        if (_sharedContext == null) {
+            ContextManager.addContext(this, currentContext);
+        }
+        ContextManager.switchContext(getContextKey());
 
         // Setup a default bg color.
         _renderer.setBackgroundColor(ColorRGBA.BLACK);
@@ -209,18 +344,26 @@ public class LwjglHeadlessCanvas {
         EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, 0);
     }
 
+    /**
+     * Draws the scene and reads the image back into the data buffer.
+     */
     public void draw() {
+        draw(true);
+    }
+
+    /**
+     * Draws the scene.
+     * 
+     * @param readPixels
+     *            whether to read the image back into the data buffer. Frames that aren't exported should skip that as
+     *            a full-resolution readback is expensive.
+     */
+    public void draw(final boolean readPixels) {
         // bind correct fbo
         EXTFramebufferObject
                 .glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, _useMSAA ? _msfboID : _fboID);
 
-        // Make sure this OpenGL context is current.
-        ContextManager.switchContext(this);
-        try {
-            _buff.makeCurrent();
-        } catch (final LWJGLException ex) {
-            ex.printStackTrace();
-        }
+        makeCurrent();
 
         // make sure camera is set
         if (Camera.getCurrentCamera() != _camera) {
@@ -236,62 +379,623 @@ public class LwjglHeadlessCanvas {
         _scene.renderUnto(_renderer);
         _renderer.flushFrame(false);
 
+        resolve(_activeWidth, _activeHeight);
+
+        if (readPixels) {
+            readPixels();
+        }
+    }
+
+    /**
+     * Makes sure this OpenGL context is current.
+     */
+    private void makeCurrent() {
+        ContextManager.switchContext(getContextKey());
+        if (_buff != null) {
+            try {
+                _buff.makeCurrent();
+            } catch (final LWJGLException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Resolves the multisampled framebuffer and flips the rows of the lower left region of the given size.
+     */
+    private void resolve(final int width, final int height) {
         // if we're multisampled, we need to blit to a non-multisampled fbo first
         if (_useMSAA) {
             EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferBlit.GL_DRAW_FRAMEBUFFER_EXT, _fboID);
             EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferBlit.GL_READ_FRAMEBUFFER_EXT, _msfboID);
-            EXTFramebufferBlit.glBlitFramebufferEXT(0, 0, _settings.getWidth(), _settings.getHeight(), 0, 0,
-                    _settings.getWidth(), _settings.getHeight(), GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT
-                            | GL11.GL_STENCIL_BUFFER_BIT, GL11.GL_NEAREST);
+            EXTFramebufferBlit.glBlitFramebufferEXT(0, 0, width, height, 0, 0, width, height,
+                    GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT | GL11.GL_STENCIL_BUFFER_BIT,
+                    GL11.GL_NEAREST);
 
             // get ready to read non-msaa fbo
             EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, _fboID);
         }
 
-        // read data from our color buffer
+        // flip the rows by blitting to an upside down destination rectangle
+        if (_flipRows) {
+            EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferBlit.GL_DRAW_FRAMEBUFFER_EXT, _flipfboID);
+            EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferBlit.GL_READ_FRAMEBUFFER_EXT, _fboID);
+            EXTFramebufferBlit.glBlitFramebufferEXT(0, 0, width, height, 0, height,
+                    width, 0, GL11.GL_COLOR_BUFFER_BIT, GL11.GL_NEAREST);
+        }
+
+        // release our FBO.
+        EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, 0);
+    }
+
+    /**
+     * Draws the scene into one cell of an atlas, leaving the rest of the framebuffer as it is. The camera renders into
+     * the cell with its frustum widened or narrowed to the aspect ratio of the cell, the frustum is restored
+     * afterwards. Call {@link #finishCells()} after the last cell to read all of them back at once.
+     * 
+     * @param x
+     * @param y
+     *            of the upper left corner of the cell, counted from the top of the canvas
+     * @param width
+     * @param height
+     * @param updates
+     *            run with the context current before the camera is fitted to the cell, so that changes of the camera
+     *            or the active size apply to the cell, may be null
+     */
+    public void drawCell(final int x, final int y, final int width, final int height, final Runnable updates) {
+        if (x < 0 || y < 0 || width < 1 || height < 1 || x + width > _width || y + height > _height) {
+            throw new IllegalArgumentException("Cell " + width + "x" + height + " at " + x + "," + y
+                    + " doesn't fit into the canvas");
+        }
+        EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, _useMSAA ? _msfboID
+                : _fboID);
+        makeCurrent();
+        if (updates != null) {
+            updates.run();
+        }
+
+        final double left = _camera.getFrustumLeft();
+        final double right = _camera.getFrustumRight();
+        final double scale = ((double) width / height) / ((double) _activeWidth / _activeHeight);
+
+        // OpenGL counts rows from the bottom
+        final int glY = _height - y - height;
+        _camera.resize(_width, _height);
+        _camera.setViewPort((double) x / _width, (double) (x + width) / _width, (double) glY / _height,
+                (double) (glY + height) / _height);
+        _camera.setFrustumLeft(left * scale);
+        _camera.setFrustumRight(right * scale);
+        try {
+            _camera.update();
+            _camera.apply(_renderer);
+
+            // only clear the cell, the other cells are kept
+            GL11.glEnable(GL11.GL_SCISSOR_TEST);
+            GL11.glScissor(x, glY, width, height);
+            _renderer.clearBuffers(Renderer.BUFFER_COLOR | Renderer.BUFFER_DEPTH);
+            GL11.glDisable(GL11.GL_SCISSOR_TEST);
+
+            _scene.renderUnto(_renderer);
+            _renderer.flushFrame(false);
+
+            EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, 0);
+        } finally {
+            _camera.setViewPort(0, 1, 0, 1);
+            _camera.setFrustumLeft(left);
+            _camera.setFrustumRight(right);
+            _camera.resize(_activeWidth, _activeHeight);
+        }
+    }
+
+    /**
+     * Reads the cells drawn by {@link #drawCell(int, int, int, int, Runnable)} back into the data buffer with a single
+     * synchronous readback of the whole canvas, whatever the active size is. Pending asynchronous readbacks have to be
+     * collected before.
+     */
+    public void finishCells() {
+        if (_pboPending > 0) {
+            throw new IllegalStateException("Readbacks are pending, collect them first");
+        }
+        EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, _useMSAA ? _msfboID
+                : _fboID);
+        resolve(_width, _height);
+
+        EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, _flipRows ? _flipfboID
+                : _fboID);
         _data.rewind();
         GL11.glReadBuffer(EXTFramebufferObject.GL_COLOR_ATTACHMENT0_EXT);
-        GL11.glReadPixels(0, 0, _settings.getWidth(), _settings.getHeight(), GL12.GL_BGRA, GL11.GL_UNSIGNED_BYTE, _data);
+        GL11.glReadPixels(0, 0, _width, _height, GL12.GL_BGRA, GL11.GL_UNSIGNED_BYTE, _data);
+        EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, 0);
+    }
+
+    /**
+     * Reads the image of the last frame back into the data buffer, or starts reading it into the next pixel buffer
+     * object if readback is asynchronous.
+     */
+    public void readPixels() {
+        // bind the fbo holding the final image
+        EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, _flipRows ? _flipfboID
+                : _fboID);
+
+        // read data from our color buffer
+        if (isAsyncReadback()) {
+            if (_pboPending == _pboIDs.length) {
+                throw new IllegalStateException("All readback buffers are pending, collect one first");
+            }
+            // only starts the transfer, it is finished by collectReadback()
+            GL11.glReadBuffer(EXTFramebufferObject.GL_COLOR_ATTACHMENT0_EXT);
+            ARBBufferObject.glBindBufferARB(ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB, _pboIDs[_pboNext]);
+            GL11.glReadPixels(0, 0, _activeWidth, _activeHeight, GL12.GL_BGRA, GL11.GL_UNSIGNED_BYTE, 0L);
+            ARBBufferObject.glBindBufferARB(ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB, 0);
+            _pboWidths[_pboNext] = _activeWidth;
+            _pboHeights[_pboNext] = _activeHeight;
+            _pboNext = (_pboNext + 1) % _pboIDs.length;
+            _pboPending++;
+        } else {
+            _data.rewind();
+            GL11.glReadBuffer(EXTFramebufferObject.GL_COLOR_ATTACHMENT0_EXT);
+            GL11.glReadPixels(0, 0, _activeWidth, _activeHeight, GL12.GL_BGRA, GL11.GL_UNSIGNED_BYTE, _data);
+        }
 
         // release our FBO.
         EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, 0);
     }
 
+    /**
+     * Switches to asynchronous readback. {@link #draw(boolean) draw(true)} then only starts transferring the image
+     * into one of {@link #READBACK_RING_SIZE} pixel buffer objects, and the image is handed over by a later call to
+     * {@link #collectReadback(ScreenShotBufferExporter)}. This lets the next frame render while the previous one is
+     * still being transferred.
+     * 
+     * Must be called on the thread which draws.
+     * 
+     * @return false if pixel buffer objects aren't supported, in which case readback stays synchronous.
+     */
+    public boolean enableAsyncReadback() {
+        if (isAsyncReadback()) {
+            return true;
+        }
+        if (!GLContext.getCapabilities().GL_ARB_pixel_buffer_object) {
+            return false;
+        }
+
+        final int size = _width * _height * 4;
+        _pboIDs = new int[READBACK_RING_SIZE];
+        _pboWidths = new int[READBACK_RING_SIZE];
+        _pboHeights = new int[READBACK_RING_SIZE];
+        for (int i = 0; i < _pboIDs.length; i++) {
+            _pboIDs[i] = ARBBufferObject.glGenBuffersARB();
+            ARBBufferObject.glBindBufferARB(ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB, _pboIDs[i]);
+            ARBBufferObject.glBufferDataARB(ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB, size,
+                    ARBBufferObject.GL_STREAM_READ_ARB);
+            _resources.allocated(Kind.PIXEL_BUFFER, _pboIDs[i], size);
+        }
+        ARBBufferObject.glBindBufferARB(ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB, 0);
+        _pboNext = 0;
+        _pboPending = 0;
+        return true;
+    }
+
+    public boolean isAsyncReadback() {
+        return _pboIDs.length > 0;
+    }
+
+    /**
+     * @return the number of asynchronous readbacks which were started but not collected yet.
+     */
+    public int getPendingReadbacks() {
+        return _pboPending;
+    }
+
+    /**
+     * Waits for the oldest pending asynchronous readback and exports it. Readbacks are collected in the order in which
+     * they were started.
+     * 
+     * @param exporter
+     *            receives the image as ARGB ints, in the row order given by {@link #isFlippingRows()}.
+     */
+    public void collectReadback(final ScreenShotBufferExporter exporter) {
+        if (_pboPending == 0) {
+            throw new IllegalStateException("No pending readback");
+        }
+        final int oldest = (_pboNext - _pboPending + _pboIDs.length) % _pboIDs.length;
+        try {
+            // the active size might have changed since the readback was started
+            exporter.export(mapReadback(oldest), _pboWidths[oldest], _pboHeights[oldest]);
+        } finally {
+            unmapReadback();
+        }
+    }
+
+    private IntBuffer mapReadback(final int index) {
+        ARBBufferObject.glBindBufferARB(ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB, _pboIDs[index]);
+        _pboMapped = ARBBufferObject.glMapBufferARB(ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB,
+                ARBBufferObject.GL_READ_ONLY_ARB, _width * _height * 4, _pboMapped);
+        return _pboMapped.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    private void unmapReadback() {
+        ARBBufferObject.glUnmapBufferARB(ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB);
+        ARBBufferObject.glBindBufferARB(ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB, 0);
+        _pboPending--;
+    }
+
+    /**
+     * Renders an image of the given size tile by tile, each tile at most as large as the canvas, and streams its rows
+     * into the sink a strip of tiles at a time. The camera frustum is split into sub-frusta, one per tile, after
+     * widening or narrowing it to the aspect ratio of the image. With asynchronous readback, a tile is copied into the
+     * strip while the next one renders.
+     * 
+     * The strip buffer holds width * canvas height pixels outside of the heap. Pending asynchronous readbacks have to
+     * be collected before.
+     * 
+     * @param width
+     * @param height
+     * @param sink
+     *            receives the rows, top to bottom
+     * @param updates
+     *            run before the camera is split, may be null
+     * @throws IOException
+     *             if the sink failed, it isn't ended then
+     */
+    public void renderTiled(final int width, final int height, final RowSink sink, final Runnable updates)
+            throws IOException {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+        if (_pboPending > 0) {
+            throw new IllegalStateException("Readbacks are pending, collect them first");
+        }
+        final long stripBytes = (long) width * _height * 4;
+        if (stripBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image is too wide for the canvas height");
+        }
+        final IntBuffer strip = ByteBuffer.allocateDirect((int) stripBytes).order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer();
+
+        if (updates != null) {
+            makeCurrent();
+            updates.run();
+        }
+
+        final int activeWidth = _activeWidth;
+        final int activeHeight = _activeHeight;
+        final double left = _camera.getFrustumLeft();
+        final double right = _camera.getFrustumRight();
+        final double top = _camera.getFrustumTop();
+        final double bottom = _camera.getFrustumBottom();
+
+        // frustum of the whole image
+        final double scale = ((double) width / height) / ((double) activeWidth / activeHeight);
+        final double imageLeft = left * scale;
+        final double imageWidth = (right - left) * scale;
+        final double imageHeight = top - bottom;
+
+        // x, y, width and height of the tiles which are being read back, oldest first
+        final LinkedList<int[]> pending = new LinkedList<int[]>();
+
+        sink.begin(width, height);
+        try {
+            for (int y = 0; y < height; y += _height) {
+                for (int x = 0; x < width; x += _width) {
+                    final int w = Math.min(_width, width - x);
+                    final int h = Math.min(_height, height - y);
+                    _activeWidth = w;
+                    _activeHeight = h;
+                    _camera.resize(w, h);
+                    _camera.setFrustumLeft(imageLeft + imageWidth * x / width);
+                    _camera.setFrustumRight(imageLeft + imageWidth * (x + w) / width);
+                    _camera.setFrustumTop(top - imageHeight * y / height);
+                    _camera.setFrustumBottom(top - imageHeight * (y + h) / height);
+                    draw(false);
+
+                    final int[] tile = { x, y, w, h };
+                    if (isAsyncReadback()) {
+                        if (_pboPending == _pboIDs.length) {
+                            collectTile(pending.removeFirst(), strip, width, sink);
+                        }
+                        readPixels();
+                        pending.add(tile);
+                    } else {
+                        readPixels();
+                        copyTile(_data, tile, strip, width, sink);
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                collectTile(pending.removeFirst(), strip, width, sink);
+            }
+            sink.end();
+        } finally {
+            // readbacks of a failed rendering are waited for and dropped
+            while (_pboPending > 0) {
+                mapReadback((_pboNext - _pboPending + _pboIDs.length) % _pboIDs.length);
+                unmapReadback();
+            }
+
+            _activeWidth = activeWidth;
+            _activeHeight = activeHeight;
+            _camera.resize(activeWidth, activeHeight);
+            _camera.setFrustumLeft(left);
+            _camera.setFrustumRight(right);
+            _camera.setFrustumTop(top);
+            _camera.setFrustumBottom(bottom);
+        }
+    }
+
+    private void collectTile(final int[] tile, final IntBuffer strip, final int stripWidth, final RowSink sink)
+            throws IOException {
+        final int oldest = (_pboNext - _pboPending + _pboIDs.length) % _pboIDs.length;
+        try {
+            copyTile(mapReadback(oldest), tile, strip, stripWidth, sink);
+        } finally {
+            unmapReadback();
+        }
+    }
+
+    /**
+     * Copies the rows of a tile into the strip, and passes the strip on to the sink once its last tile is copied.
+     */
+    private void copyTile(final IntBuffer pixels, final int[] tile, final IntBuffer strip, final int stripWidth,
+            final RowSink sink) throws IOException {
+        final int x = tile[0], y = tile[1], w = tile[2], h = tile[3];
+        for (int row = 0; row < h; row++) {
+            final int sourceRow = _flipRows ? row : h - 1 - row;
+            pixels.limit((sourceRow + 1) * w);
+            pixels.position(sourceRow * w);
+            strip.limit(row * stripWidth + x + w);
+            strip.position(row * stripWidth + x);
+            strip.put(pixels);
+        }
+        pixels.clear();
+        if (x + w == stripWidth) {
+            strip.position(0);
+            strip.limit(h * stripWidth);
+            sink.writeRows(y, h, strip);
+        }
+    }
+
     public void releaseContext() throws LWJGLException {
-        _buff.releaseContext();
+        if (_buff != null) {
+            _buff.releaseContext();
+        }
     }
 
+    /**
+     * @return the key of the Ardor3D render context, which is shared with other canvases in a shared context.
+     */
+    protected Object getContextKey() {
+        return _sharedContext != null ? _sharedContext : this;
+    }
+
+    /**
+     * Deletes all OpenGL objects of the canvas, and its Pbuffer unless the context is shared.
+     */
     public void cleanup() {
-        if (_fboID != 0) {
-            final IntBuffer id = BufferUtils.createIntBuffer(1);
-            id.put(_fboID);
-            id.rewind();
-            EXTFramebufferObject.glDeleteFramebuffersEXT(id);
-            _fboID = 0;
+        _fboID = deleteFramebuffer(_fboID);
+        _depthRBID = deleteRenderbuffer(_depthRBID);
+        _colorRBID = deleteRenderbuffer(_colorRBID);
+
+        _msfboID = deleteFramebuffer(_msfboID);
+        _msdepthRBID = deleteRenderbuffer(_msdepthRBID);
+        _mscolorRBID = deleteRenderbuffer(_mscolorRBID);
+
+        _flipfboID = deleteFramebuffer(_flipfboID);
+        _flipcolorRBID = deleteRenderbuffer(_flipcolorRBID);
+
+        for (int i = 0; i < _pboIDs.length; i++) {
+            ARBBufferObject.glDeleteBuffersARB(_pboIDs[i]);
+            _resources.freed(Kind.PIXEL_BUFFER, _pboIDs[i]);
         }
+        _pboIDs = new int[0];
+        _pboPending = 0;
+        _pboMapped = null;
 
-        if (_depthRBID != 0) {
-            final IntBuffer id = BufferUtils.createIntBuffer(1);
-            id.put(_depthRBID);
-            id.rewind();
-            EXTFramebufferObject.glDeleteRenderbuffersEXT(id);
-            _depthRBID = 0;
+        // a shared context outlives its canvases
+        if (_sharedContext == null) {
+            ContextManager.removeContext(this);
+        }
+        if (_buff != null) {
+            _buff.destroy();
+            _buff = null;
+            _resources.freed(Kind.PBUFFER, 0);
+        }
+    }
+
+    /**
+     * @return 0, the new id
+     */
+    private int deleteFramebuffer(final int id) {
+        if (id != 0) {
+            final IntBuffer ids = BufferUtils.createIntBuffer(1);
+            ids.put(id);
+            ids.rewind();
+            EXTFramebufferObject.glDeleteFramebuffersEXT(ids);
+            _resources.freed(Kind.FRAMEBUFFER, id);
         }
+        return 0;
+    }
 
-        if (_colorRBID != 0) {
-            final IntBuffer id = BufferUtils.createIntBuffer(1);
-            id.put(_colorRBID);
-            id.rewind();
-            EXTFramebufferObject.glDeleteRenderbuffersEXT(id);
-            _colorRBID = 0;
+    /**
+     * @return 0, the new id
+     */
+    private int deleteRenderbuffer(final int id) {
+        if (id != 0) {
+            final IntBuffer ids = BufferUtils.createIntBuffer(1);
+            ids.put(id);
+            ids.rewind();
+            EXTFramebufferObject.glDeleteRenderbuffersEXT(ids);
+            _resources.freed(Kind.RENDERBUFFER, id);
         }
-        ContextManager.removeContext(this);
+        return 0;
     }
 
     public IntBuffer getDataBuffer() {
         return _data;
     }
 
+    /**
+     * Changes the size of the canvas by reallocating the storage of its renderbuffers and readback buffers. The
+     * context and everything uploaded to it are kept. The active size becomes the new size and the camera is resized
+     * like in {@link #setActiveSize(int, int)}.
+     * 
+     * Pending asynchronous readbacks have to be collected before.
+     * 
+     * @param width
+     * @param height
+     * @throws IllegalArgumentException
+     *             if the size exceeds the maximum renderbuffer size, the canvas keeps its size then
+     * @throws Ardor3dException
+     *             if the driver couldn't allocate the renderbuffers or the framebuffers are incomplete afterwards,
+     *             the canvas can't be used any more then
+     */
+    public void resize(final int width, final int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+        if (_pboPending > 0) {
+            throw new IllegalStateException("Readbacks are pending, collect them first");
+        }
+        if (width == _width && height == _height) {
+            setActiveSize(width, height);
+            return;
+        }
+        final int maxSize = GL11.glGetInteger(EXTFramebufferObject.GL_MAX_RENDERBUFFER_SIZE_EXT);
+        if (width > maxSize || height > maxSize) {
+            throw new IllegalArgumentException("Size " + width + "x" + height
+                    + " exceeds the maximum renderbuffer size of " + maxSize);
+        }
+
+        // errors of earlier calls aren't ours to report
+        while (GL11.glGetError() != GL11.GL_NO_ERROR) {
+        }
+        allocateStorage(_colorRBID, GL11.GL_RGBA, 0, width, height);
+        allocateStorage(_depthRBID, GL11.GL_DEPTH_COMPONENT, 0, width, height);
+        if (_useMSAA) {
+            allocateStorage(_mscolorRBID, GL11.GL_RGBA, _settings.getSamples(), width, height);
+            allocateStorage(_msdepthRBID, GL11.GL_DEPTH_COMPONENT, _settings.getSamples(), width, height);
+        }
+        if (_flipRows) {
+            allocateStorage(_flipcolorRBID, GL11.GL_RGBA, 0, width, height);
+        }
+        EXTFramebufferObject.glBindRenderbufferEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT, 0);
+        if (GL11.glGetError() == GL11.GL_OUT_OF_MEMORY) {
+            throw new Ardor3dException("Out of GPU memory resizing the canvas to " + width + "x" + height);
+        }
+        checkResizedFBO(_fboID, width, height);
+        if (_useMSAA) {
+            checkResizedFBO(_msfboID, width, height);
+        }
+        if (_flipRows) {
+            checkResizedFBO(_flipfboID, width, height);
+        }
+
+        _data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        for (int i = 0; i < _pboIDs.length; i++) {
+            ARBBufferObject.glBindBufferARB(ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB, _pboIDs[i]);
+            ARBBufferObject.glBufferDataARB(ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB, width * height * 4,
+                    ARBBufferObject.GL_STREAM_READ_ARB);
+            _resources.allocated(Kind.PIXEL_BUFFER, _pboIDs[i], width * height * 4);
+        }
+        ARBBufferObject.glBindBufferARB(ARBPixelBufferObject.GL_PIXEL_PACK_BUFFER_ARB, 0);
+        // the mapping of the old buffer size can't be reused
+        _pboMapped = null;
+
+        _width = width;
+        _height = height;
+        setActiveSize(width, height);
+    }
+
+    private void checkResizedFBO(final int fboID, final int width, final int height) {
+        EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, fboID);
+        try {
+            LwjglTextureRenderer.checkFBOComplete(fboID);
+        } catch (final RuntimeException e) {
+            throw new Ardor3dException("Canvas can't be resized to " + width + "x" + height + ": " + e.getMessage());
+        } finally {
+            EXTFramebufferObject.glBindFramebufferEXT(EXTFramebufferObject.GL_FRAMEBUFFER_EXT, 0);
+        }
+    }
+
+    private void allocateStorage(final int renderbufferID, final int format, final int samples,
+            final int width, final int height) {
+        EXTFramebufferObject.glBindRenderbufferEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT, renderbufferID);
+        if (samples > 0) {
+            EXTFramebufferMultisample.glRenderbufferStorageMultisampleEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT,
+                    samples, format, width, height);
+        } else {
+            EXTFramebufferObject.glRenderbufferStorageEXT(EXTFramebufferObject.GL_RENDERBUFFER_EXT, format, width,
+                    height);
+        }
+        _resources.allocated(Kind.RENDERBUFFER, renderbufferID, GpuResourceTracker.renderbufferBytes(width, height,
+                samples));
+    }
+
+    /**
+     * @return the width of the renderbuffers.
+     */
+    public int getWidth() {
+        return _width;
+    }
+
+    /**
+     * @return the height of the renderbuffers.
+     */
+    public int getHeight() {
+        return _height;
+    }
+
+    /**
+     * Restricts rendering and readback to the lower left region of the given size, so that a canvas can be reused for
+     * smaller images. The camera is resized to the region and its frustum is widened or narrowed to keep the aspect
+     * ratio of the region.
+     * 
+     * @param width
+     *            at most the canvas width
+     * @param height
+     *            at most the canvas height
+     */
+    public void setActiveSize(final int width, final int height) {
+        if (width < 1 || height < 1 || width > _width || height > _height) {
+            throw new IllegalArgumentException("Active size " + width + "x" + height + " doesn't fit into the canvas");
+        }
+        final double scale = ((double) width / height) / ((double) _activeWidth / _activeHeight);
+        _camera.setFrustumLeft(_camera.getFrustumLeft() * scale);
+        _camera.setFrustumRight(_camera.getFrustumRight() * scale);
+        _camera.resize(width, height);
+        _activeWidth = width;
+        _activeHeight = height;
+    }
+
+    /**
+     * @return the width of the rendered and read back region, see {@link #setActiveSize(int, int)}.
+     */
+    public int getActiveWidth() {
+        return _activeWidth;
+    }
+
+    /**
+     * @return the height of the rendered and read back region, see {@link #setActiveSize(int, int)}.
+     */
+    public int getActiveHeight() {
+        return _activeHeight;
+    }
+
+    /**
+     * @return true if the rows in the data buffer are ordered top to bottom, false if they are in the usual OpenGL
+     *         bottom to top order.
+     */
+    public boolean isFlippingRows() {
+        return _flipRows;
+    }
+
+    /**
+     * @return the tracker of the OpenGL objects of this canvas.
+     */
+    public GpuResourceTracker getResources() {
+        return _resources;
+    }
+
     public Renderer getRenderer() {
         return _renderer;
     }
@@ -1,10 +1,19 @@
 package com.github.neothemachine.ardor3d.screenshot;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 
@@ -14,6 +23,7 @@ import org.slf4j.LoggerFactory;
 import com.ardor3d.framework.Canvas;
 import com.ardor3d.framework.DisplaySettings;
 import com.ardor3d.framework.Scene;
+import com.ardor3d.image.ImageDataFormat;
 import com.ardor3d.intersection.PickResults;
 import com.ardor3d.math.Ray3;
 import com.ardor3d.renderer.Renderer;
@@ -24,7 +34,9 @@ import com.ardor3d.scenegraph.Node;
 import com.ardor3d.util.ContextGarbageCollector;
 import com.ardor3d.util.GameTaskQueue;
 import com.ardor3d.util.GameTaskQueueManager;
-import com.ardor3d.util.screen.ScreenExporter;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.assistedinject.Assisted;
 
 /**
@@ -34,15 +46,28 @@ import com.google.inject.assistedinject.Assisted;
  * @author maik
  * 
  */
-public class LwjglHeadlessScreenshotCanvas implements ScreenshotCanvas, Scene,
+public class LwjglHeadlessScreenshotCanvas implements ScreenshotCanvas,
+		AsyncCanvas, PooledImageCanvas, SingleFrameCanvas, CroppableCanvas,
+		ResizableCanvas, TiledCanvas, AtlasCanvas, GpuResourceOwner, Scene,
 		Runnable {
 
 	private static final Logger log = LoggerFactory
 			.getLogger(LwjglHeadlessScreenshotCanvas.class);
 
+	/**
+	 * Held while a canvas draws or changes its OpenGL objects. Ardor3D keeps the
+	 * current render context and camera in static fields, which canvases on
+	 * different threads would otherwise switch under each other's feet.
+	 * Pixels are read back and exported outside of it, so that canvases
+	 * overlap there.
+	 */
+	private static final Object FRAME_LOCK = new Object();
+
 	private final Collection<UncaughtExceptionHandler> uncaughtExceptionHandlers = new LinkedList<UncaughtExceptionHandler>();
 
-	private final IntDimension size;
+	// applied by the render thread before the next shot
+	private volatile IntDimension size;
+	private volatile IntDimension cropSize;
 	private LwjglHeadlessCanvas canvas;
 	private Renderer renderer;
 
@@ -52,25 +77,87 @@ public class LwjglHeadlessScreenshotCanvas implements ScreenshotCanvas, Scene,
 	
 	private final BasicPassManager passManager = new BasicPassManager();
 
-	private final ScreenShotBufferExporter screenShotExp = new ScreenShotBufferExporter();
+	private final ScreenShotBufferExporter screenShotExp = new ScreenShotBufferExporter(ImageDataFormat.BGRA);
 
-	private Throwable lastUncaughtException = null;
+	private volatile Throwable lastUncaughtException = null;
 
-	private boolean isExitRequested = false;
+	private volatile boolean isExitRequested = false;
 	private boolean isExitDone = false;
 	private final Object exitDoneMonitor = new Object();
 
-	private boolean isShotRequested = false;
-	private final Object shotRequestedMonitor = new Object();
-	private final Object shotFinishedMonitor = new Object();
+	/**
+	 * A queued screenshot together with the future it completes.
+	 */
+	private static class PendingShot {
+		final ShotRequest request;
+		final SettableFuture<BufferedImage> future = SettableFuture.create();
+		final ImagePool imagePool;
+		PooledImage pooledImage;
+
+		// set for tiled shots, which complete with a null image
+		IntDimension tiledSize;
+		RowSink sink;
+
+		// set for atlas shots, which complete with a null image
+		List<ShotRequest> atlasRequests;
+		List<int[]> cells;
+		List<BufferedImage> atlasImages;
+
+		// time spent on starting and collecting the readback of this shot,
+		// only accessed by the render thread
+		long readbackNanos = 0;
+
+		PendingShot(ShotRequest request, ImagePool imagePool) {
+			this.request = request;
+			this.imagePool = imagePool;
+		}
+	}
+
+	// wakes up the render thread when exiting
+	private static final PendingShot EXIT = new PendingShot(null, null);
+
+	private final BlockingQueue<PendingShot> shotQueue = new LinkedBlockingQueue<PendingShot>();
+
+	// shots whose pixels are still being read back asynchronously, oldest first,
+	// only accessed by the render thread
+	private final LinkedList<PendingShot> readbackQueue = new LinkedList<PendingShot>();
+
+	// shot which is currently rendered, only accessed by the render thread
+	private PendingShot currentShot = null;
 
 	private final int aaSamples;
 
+	// null if the canvas has its own context and render thread
+	private final SharedHeadlessContext sharedContext;
+
+	private volatile boolean singleFrameShots = false;
+
+	// queued updates which haven't run yet
+	private final AtomicInteger pendingUpdates = new AtomicInteger();
+
+	// scene was updated in this frame, only accessed by the render thread
+	private boolean isSceneDirty = false;
+
+	private volatile ScreenshotMetrics metrics;
+
+	private final GpuResourceTracker gpuResources = new GpuResourceTracker();
+
 	@Inject
 	public LwjglHeadlessScreenshotCanvas(@Assisted IntDimension size, @Samples int aaSamples) {
+		this(size, aaSamples, null);
+	}
+
+	/**
+	 * @param sharedContext
+	 *            the context whose thread renders the shots, or null to
+	 *            create an own context and render thread
+	 */
+	protected LwjglHeadlessScreenshotCanvas(IntDimension size, int aaSamples,
+			SharedHeadlessContext sharedContext) {
 
 		this.size = size;
 		this.aaSamples = aaSamples;
+		this.sharedContext = sharedContext;
 				
 		GameTaskQueueManager.getManager(this).getQueue(GameTaskQueue.UPDATE)
 				.setExecuteMultiple(true);
@@ -100,35 +187,61 @@ public class LwjglHeadlessScreenshotCanvas implements ScreenshotCanvas, Scene,
 		TextureRendererFactory.INSTANCE
 				.setProvider(new LwjglTextureRendererProvider());
 
+		if (sharedContext != null) {
+			// shots are rendered by tasks on the thread of the context, see submitShot()
+			sharedContext.call(new Callable<Void>() {
+				@Override
+				public Void call() {
+					initCanvas();
+					return null;
+				}
+			});
+			return;
+		}
+
 		Thread renderThread = new Thread(this);
 		renderThread
 				.setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
 					@Override
 					public void uncaughtException(Thread t, Throwable e) {
-						log.error(e.getMessage(), e);
-						isShotRequested = false;
-						lastUncaughtException = e;
-						// wake up takeShot() on error
-						synchronized (shotFinishedMonitor) {
-							shotFinishedMonitor.notifyAll();
-						}
-						for (UncaughtExceptionHandler eh : uncaughtExceptionHandlers) {
-							eh.uncaughtException(t, e);
-						}
-						dispose();
+						fail(t, e);
 					}
 				});
 		renderThread.start();
 
 	}
 
+	private void fail(Thread t, Throwable e) {
+		log.error(e.getMessage(), e);
+		synchronized (shotQueue) {
+			lastUncaughtException = e;
+		}
+		// fail all shots which are waiting, the canvas is dead
+		failPendingShots(new Ardor3DRenderException(e));
+		for (UncaughtExceptionHandler eh : uncaughtExceptionHandlers) {
+			eh.uncaughtException(t, e);
+		}
+		if (sharedContext != null && !isExitDone) {
+			// the shared thread lives on, free the framebuffers of this canvas
+			isExitRequested = true;
+			doDispose();
+		}
+		dispose();
+	}
+
 	@Override
 	public void queueSceneUpdate(final SceneGraphUpdate update) {
+		pendingUpdates.incrementAndGet();
 		GameTaskQueueManager.getManager(this).update(new Callable<Void>() {
 			@Override
 			public Void call() throws Exception {
-				update.update(root);
-				root.updateGeometricState(0);
+				try {
+					update.update(root);
+				} finally {
+					// a failed update may have changed the scene all the same
+					isSceneDirty = true;
+					pendingUpdates.decrementAndGet();
+				}
 				return null;
 			}
 		});
@@ -136,45 +249,220 @@ public class LwjglHeadlessScreenshotCanvas implements ScreenshotCanvas, Scene,
 
 	@Override
 	public void queueCanvasUpdate(final CanvasUpdate update) {
+		pendingUpdates.incrementAndGet();
 		GameTaskQueueManager.getManager(this).render(new Callable<Void>() {
 			@Override
 			public Void call() throws Exception {
-				update.update(canvasWrapper);
+				try {
+					update.update(canvasWrapper);
+				} finally {
+					pendingUpdates.decrementAndGet();
+				}
 				return null;
 			}
 		});
 	}
 
+	@Override
+	public void setSingleFrameShots(boolean singleFrame) {
+		this.singleFrameShots = singleFrame;
+	}
+
+	/**
+	 * Sets where the canvas records the times of its shots, null for nowhere.
+	 */
+	@com.google.inject.Inject(optional = true)
+	public void setMetrics(ScreenshotMetrics metrics) {
+		this.metrics = metrics;
+		this.gpuResources.setMetrics(metrics);
+	}
+
+	@Override
+	public GpuResourceTracker getGpuResources() {
+		return gpuResources;
+	}
+
 	@Override
 	public IntDimension getSize() {
 		return this.size;
 	}
 
+	/**
+	 * Resizes the framebuffers before the next shot, keeping the context,
+	 * scene graph and uploaded resources.
+	 */
+	@Override
+	public void setSize(IntDimension size) {
+		// resizing renders the full canvas again
+		this.cropSize = null;
+		this.size = size;
+		// crops queued before must not be applied to the new size
+		queueApplyCrop();
+	}
+
+	@Override
+	public void setCropSize(IntDimension cropSize) {
+		final IntDimension canvasSize = this.size;
+		final IntDimension activeSize = cropSize == null ? canvasSize : cropSize;
+		if (activeSize.getWidth() > canvasSize.getWidth()
+				|| activeSize.getHeight() > canvasSize.getHeight()) {
+			throw new IllegalArgumentException("Crop size must fit into the canvas");
+		}
+		this.cropSize = cropSize;
+		queueApplyCrop();
+	}
+
+	/**
+	 * Applies the crop size which is current when the update runs on the
+	 * render thread like any canvas update, so that updates queued by
+	 * setCropSize() and setSize() in between don't apply stale sizes.
+	 */
+	private void queueApplyCrop() {
+		this.queueCanvasUpdate(new CanvasUpdate() {
+			@Override
+			public void update(Canvas canvas) {
+				IntDimension activeSize = getCropSize();
+				LwjglHeadlessCanvas c = LwjglHeadlessScreenshotCanvas.this.canvas;
+				if (activeSize.getWidth() <= c.getWidth() && activeSize.getHeight() <= c.getHeight()) {
+					c.setActiveSize(activeSize.getWidth(), activeSize.getHeight());
+				}
+				// otherwise the canvas is resized before the next shot, which
+				// applies the crop again
+			}
+		});
+	}
+
+	@Override
+	public IntDimension getCropSize() {
+		IntDimension cropSize = this.cropSize;
+		return cropSize == null ? this.size : cropSize;
+	}
+
 	@Override
 	public BufferedImage takeShot() {
-		synchronized (shotRequestedMonitor) {
-			if (isShotRequested) {
-				throw new IllegalStateException(
-						"Another screenshot is already in progress");
+		return getShot(submitShot(new ShotRequest(), null));
+	}
+
+	@Override
+	public BufferedImage takeShot(long timeout, TimeUnit unit)
+			throws InterruptedException, TimeoutException {
+		return ShotFutures.get(takeShotAsync(new ShotRequest()), timeout, unit);
+	}
+
+	@Override
+	public PooledImage takeShot(ImagePool pool) {
+		PendingShot shot = submitShot(new ShotRequest(), pool);
+		getShot(shot);
+		return shot.pooledImage;
+	}
+
+	@Override
+	public ListenableFuture<BufferedImage> takeShotAsync(ShotRequest request) {
+		return submitShot(request, null).future;
+	}
+
+	@Override
+	public List<BufferedImage> takeShots(List<ShotRequest> requests) {
+		List<PendingShot> shots = new ArrayList<PendingShot>(requests.size());
+		// keep the shots of other callers out of the batch
+		synchronized (shotQueue) {
+			for (ShotRequest request : requests) {
+				shots.add(submitShot(request, null));
 			}
-			// canvas.getCanvasRenderer().makeCurrentContext();
-			// ^ not necessary, as canvas.draw() already does that 
-			isShotRequested = true;
-			shotRequestedMonitor.notifyAll();
 		}
-		synchronized (shotFinishedMonitor) {
-			while (isShotRequested) {
-				try {
-					shotFinishedMonitor.wait();
-				} catch (InterruptedException e) {
+		List<BufferedImage> images = new ArrayList<BufferedImage>(requests.size());
+		try {
+			for (PendingShot shot : shots) {
+				images.add(getShot(shot));
+			}
+		} finally {
+			if (images.size() < shots.size()) {
+				// no need to render the remaining shots
+				for (PendingShot shot : shots) {
+					shot.future.cancel(false);
 				}
 			}
-			if (lastUncaughtException != null) {
-				throw new Ardor3DRenderException(lastUncaughtException);
+		}
+		return images;
+	}
+
+	@Override
+	public void takeTiledShot(IntDimension size, RowSink sink) throws IOException {
+		PendingShot shot = new PendingShot(new ShotRequest(), null);
+		shot.tiledSize = size;
+		shot.sink = sink;
+		submitShot(shot);
+		try {
+			getShot(shot);
+		} catch (Ardor3DRenderException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public List<BufferedImage> takeAtlasShots(List<ShotRequest> requests,
+			List<IntDimension> sizes) {
+		if (requests.size() != sizes.size()) {
+			throw new IllegalArgumentException("One size per request needed");
+		}
+		List<int[]> cells = new ArrayList<int[]>(sizes.size());
+		if (AtlasPacker.pack(sizes, 0, this.size, cells) < sizes.size()) {
+			throw new IllegalArgumentException("Images don't fit into the canvas");
+		}
+		PendingShot shot = new PendingShot(new ShotRequest(), null);
+		shot.atlasRequests = requests;
+		shot.cells = cells;
+		submitShot(shot);
+		getShot(shot);
+		return shot.atlasImages;
+	}
+
+	private PendingShot submitShot(ShotRequest request, ImagePool pool) {
+		return submitShot(new PendingShot(request, pool));
+	}
+
+	private PendingShot submitShot(PendingShot shot) {
+		boolean renderNow = false;
+		// dispose() and fail() set their flags under the same lock, so a shot is
+		// either rejected here or queued early enough to be failed by them
+		synchronized (shotQueue) {
+			if (isExitRequested || lastUncaughtException != null) {
+				shot.future.setException(new IllegalStateException(
+						"Canvas is disposed"));
+				return shot;
+			}
+			shotQueue.add(shot);
+			if (sharedContext != null && sharedContext.isContextThread()) {
+				// a task of the context would wait for the caller, which is
+				// the thread of the context
+				renderNow = true;
+			} else if (sharedContext != null) {
+				try {
+					sharedContext.submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							renderNextShot();
+							return null;
+						}
+					});
+				} catch (IllegalStateException e) {
+					shotQueue.remove(shot);
+					shot.future.setException(e);
+				}
 			}
 		}
+		// shots queued before are rendered first, their tasks find nothing to do
+		while (renderNow && !shot.future.isDone() && !shotQueue.isEmpty()) {
+			renderNextShot();
+		}
+		return shot;
+	}
 
-		return screenShotExp.getLastImage();
+	private static BufferedImage getShot(PendingShot shot) {
+		return ShotFutures.get(shot.future);
 	}
 
 	@Override
@@ -182,16 +470,33 @@ public class LwjglHeadlessScreenshotCanvas implements ScreenshotCanvas, Scene,
 		this.uncaughtExceptionHandlers.add(eh);
 	}
 
-	@Override
-	public boolean renderUnto(Renderer renderer) {
-		
+	/**
+	 * Runs the queued scene and canvas updates.
+	 */
+	private void runUpdates(Renderer renderer) {
 		GameTaskQueueManager.getManager(this).getQueue(GameTaskQueue.UPDATE)
 				.execute();
-		
-		passManager.updatePasses(0);
+
+		// one geometric update for all scene updates of this frame
+		if (isSceneDirty) {
+			root.updateGeometricState(0);
+			isSceneDirty = false;
+		}
 
 		GameTaskQueueManager.getManager(this).getQueue(GameTaskQueue.RENDER)
 				.execute(renderer);
+	}
+
+	@Override
+	public boolean renderUnto(Renderer renderer) {
+		
+		runUpdates(renderer);
+
+		passManager.updatePasses(0);
+
+		// canvas updates may have changed the camera after the canvas
+		// applied it, re-apply so that they take effect in this frame already
+		canvas.getCamera().apply(renderer);
 
 		// necessary because internal ardor3d code relies on this queue
 		// it happens after our own queue so that dispose() works correctly
@@ -205,65 +510,371 @@ public class LwjglHeadlessScreenshotCanvas implements ScreenshotCanvas, Scene,
 
         // TODO renderer.renderBuckets(); probably not needed anymore
         passManager.renderPasses(renderer);
-		
-		if (isShotRequested) {
-			// force any waiting scene elements to be rendered.
-			renderer.renderBuckets();
-			ScreenExporter.exportCurrentScreen(canvasWrapper
-					.getCanvasRenderer().getRenderer(), screenShotExp);
-			synchronized (shotFinishedMonitor) {
-				isShotRequested = false;
-				this.shotFinishedMonitor.notifyAll();
-			}
-		}
+
+		// waiting scene elements are rendered by the canvas when flushing the
+		// frame, the screenshot is exported after that in run()
 		return true;
 
 	}
 
 	@Override
 	public void run() {
-		
+		try {
+			renderShots();
+		} finally {
+			// also frees the OpenGL objects if the thread dies, before the
+			// uncaught exception handlers run
+			this.doDispose();
+		}
+	}
+
+	private void renderShots() {
+		initCanvas();
+
+		// pixels of a shot are read back while the next shot is rendered
+		this.canvas.enableAsyncReadback();
+
+		while (true) {
+			PendingShot shot;
+			if (readbackQueue.isEmpty()) {
+				shot = Uninterruptibles.takeUninterruptibly(shotQueue);
+			} else {
+				shot = shotQueue.poll();
+				if (shot == null) {
+					// nothing else to render, don't let the caller wait
+					finishReadback();
+					continue;
+				}
+			}
+			if (shot == EXIT) {
+				break;
+			}
+			if (shot.cells != null && !shot.future.isCancelled()) {
+				atlasShot(shot);
+				currentShot = null;
+				continue;
+			}
+			if (shot.sink != null && !shot.future.isCancelled()) {
+				tileShot(shot);
+				currentShot = null;
+				continue;
+			}
+			if (shot.future.isCancelled() || !drawShot(shot)) {
+				continue;
+			}
+			if (this.canvas.isAsyncReadback()) {
+				if (this.canvas.getPendingReadbacks() == LwjglHeadlessCanvas.READBACK_RING_SIZE) {
+					finishReadback();
+				}
+				long start = System.nanoTime();
+				this.canvas.readPixels();
+				shot.readbackNanos = System.nanoTime() - start;
+				readbackQueue.add(shot);
+			} else {
+				readShot(shot);
+			}
+			currentShot = null;
+		}
+		while (!readbackQueue.isEmpty()) {
+			finishReadback();
+		}
+		failPendingShots(new IllegalStateException("Canvas is disposed"));
+	}
+
+	/**
+	 * Renders the next queued shot on the thread of the shared context.
+	 * Readback is synchronous there, as pending readbacks couldn't be
+	 * collected while other canvases render.
+	 */
+	private void renderNextShot() {
+		PendingShot shot = shotQueue.poll();
+		if (shot == null || shot.future.isCancelled() || isExitDone) {
+			return;
+		}
+		try {
+			if (shot.cells != null) {
+				atlasShot(shot);
+			} else if (shot.sink != null) {
+				tileShot(shot);
+			} else if (drawShot(shot)) {
+				readShot(shot);
+			}
+			currentShot = null;
+		} catch (Throwable e) {
+			// keeps the shared thread alive for the other canvases
+			fail(Thread.currentThread(), e);
+		}
+	}
+
+	private void initCanvas() {
 		final DisplaySettings settings = new DisplaySettings(size.getWidth(),
 				size.getHeight(), 24, 1, 8, 8, 0, aaSamples, false, false);
 
-		this.canvas = new LwjglHeadlessCanvas(settings, this);
+		synchronized (FRAME_LOCK) {
+			this.canvas = new LwjglHeadlessCanvas(settings, this, true,
+					sharedContext, gpuResources);
+		}
 		this.canvasWrapper = new LwjglHeadlessCanvasWrapper(this.canvas);
 		this.renderer = this.canvas.getRenderer();
-		
-		while (!isExitRequested) {
-			synchronized (shotRequestedMonitor) {
-				while (!isShotRequested && !isExitRequested) {
-					try {
-						// this should be a new monitor for the invariant
-						// !isShotRequested && !isExitRequested
-						// but anyway.. we just notifyAll shotRequestedMonitor
-						// in exit()
-						shotRequestedMonitor.wait();
-					} catch (InterruptedException e) {
+		this.screenShotExp.setTopDown(this.canvas.isFlippingRows());
+	}
+
+	/**
+	 * Applies the updates of the shot and renders its frames.
+	 *
+	 * @return false if the shot was cancelled in the meantime
+	 */
+	private boolean drawShot(PendingShot shot) {
+		synchronized (FRAME_LOCK) {
+			applySize();
+
+			currentShot = shot;
+			shot.request.queueOn(this);
+
+			// only the last frame is read back and exported
+			this.canvas.draw(false);
+			if (shot.future.isCancelled()) {
+				// deadline passed, the updates have been applied though
+				currentShot = null;
+				return false;
+			}
+			if (!singleFrameShots || pendingUpdates.get() > 0) {
+				this.canvas.draw(false);
+			}
+			return true;
+		}
+	}
+
+	private void applySize() {
+		IntDimension targetSize = this.size;
+		if (this.canvas.getWidth() != targetSize.getWidth()
+				|| this.canvas.getHeight() != targetSize.getHeight()) {
+			// the readback buffers are reallocated
+			while (!readbackQueue.isEmpty()) {
+				finishReadback();
+			}
+			this.canvas.resize(targetSize.getWidth(), targetSize.getHeight());
+		}
+	}
+
+	/**
+	 * Renders all cells of an atlas shot in one frame, each after applying
+	 * the updates of its request, reads them back at once and cuts out the
+	 * images.
+	 */
+	private void atlasShot(PendingShot shot) {
+		// the atlas is read back synchronously
+		while (!readbackQueue.isEmpty()) {
+			finishReadback();
+		}
+
+		long readbackNanos;
+		synchronized (FRAME_LOCK) {
+			applySize();
+			currentShot = shot;
+			for (int i = 0; i < shot.cells.size(); i++) {
+				int[] cell = shot.cells.get(i);
+				shot.atlasRequests.get(i).queueOn(this);
+				// the camera is fitted to the cell after the updates changed it
+				this.canvas.drawCell(cell[0], cell[1], cell[2], cell[3], new Runnable() {
+					@Override
+					public void run() {
+						runUpdates(renderer);
 					}
-				}
+				});
 			}
-			if (!isExitRequested) {
-				isShotRequested = false;
-				this.canvas.draw();
-				isShotRequested = true;
-				this.canvas.draw();
+
+			long start = System.nanoTime();
+			this.canvas.finishCells();
+			readbackNanos = System.nanoTime() - start;
+		}
+
+		long exportNanos = 0;
+		List<BufferedImage> images = new ArrayList<BufferedImage>(shot.cells.size());
+		for (int[] cell : shot.cells) {
+			screenShotExp.exportRegion(this.canvas.getDataBuffer(),
+					this.canvas.getWidth(), this.canvas.getHeight(),
+					cell[0], cell[1], cell[2], cell[3]);
+			images.add(screenShotExp.getLastImage());
+			exportNanos += screenShotExp.getLastExportNanos();
+		}
+		ScreenshotMetrics m = this.metrics;
+		if (m != null) {
+			m.recordShot(readbackNanos, exportNanos);
+		}
+		shot.atlasImages = images;
+		shot.future.set(null);
+	}
+
+	/**
+	 * Renders the tiles of a tiled shot after its frames were drawn.
+	 */
+	/**
+	 * Applies the updates of the shot without drawing a full frame and
+	 * renders the image tile by tile into the sink of the shot.
+	 */
+	private void tileShot(final PendingShot shot) {
+		// the tiles need the readback buffers
+		while (!readbackQueue.isEmpty()) {
+			finishReadback();
+		}
+		try {
+			// the tiles are drawn one after another, all under the lock
+			synchronized (FRAME_LOCK) {
+				applySize();
+				currentShot = shot;
+				shot.request.queueOn(this);
+				this.canvas.renderTiled(shot.tiledSize.getWidth(),
+						shot.tiledSize.getHeight(), new GuardedRowSink(shot.sink), new Runnable() {
+					@Override
+					public void run() {
+						runUpdates(renderer);
+						if (pendingUpdates.get() > 0) {
+							// updates queued further updates, like a second frame
+							runUpdates(renderer);
+						}
+					}
+				});
 			}
+			shot.future.set(null);
+		} catch (SinkException e) {
+			// the canvas is intact, only the shot fails
+			shot.future.setException(e.getCause());
+		} catch (IOException e) {
+			shot.future.setException(e);
+		}
+	}
+
+	/**
+	 * A RuntimeException thrown by a row sink.
+	 */
+	private static class SinkException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		SinkException(RuntimeException cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * Passes RuntimeExceptions of the sink on as IOExceptions, so that they
+	 * fail the shot instead of the render thread.
+	 */
+	private static class GuardedRowSink implements RowSink {
+
+		private final RowSink sink;
+
+		GuardedRowSink(RowSink sink) {
+			this.sink = sink;
+		}
+
+		@Override
+		public void begin(int width, int height) throws IOException {
+			try {
+				sink.begin(width, height);
+			} catch (RuntimeException e) {
+				throw new SinkException(e);
+			}
+		}
+
+		@Override
+		public void writeRows(int y, int rows, IntBuffer argb) throws IOException {
+			try {
+				sink.writeRows(y, rows, argb);
+			} catch (RuntimeException e) {
+				throw new SinkException(e);
+			}
+		}
+
+		@Override
+		public void end() throws IOException {
+			try {
+				sink.end();
+			} catch (RuntimeException e) {
+				throw new SinkException(e);
+			}
+		}
+	}
+
+	private void readShot(PendingShot shot) {
+		long start = System.nanoTime();
+		this.canvas.readPixels();
+		shot.readbackNanos = System.nanoTime() - start;
+		screenShotExp.setImagePool(shot.imagePool);
+		screenShotExp.export(this.canvas.getDataBuffer(),
+				this.canvas.getActiveWidth(), this.canvas.getActiveHeight());
+		completeShot(shot);
+	}
+
+	/**
+	 * Exports the oldest shot which is being read back asynchronously.
+	 */
+	private void finishReadback() {
+		PendingShot shot = readbackQueue.getFirst();
+		screenShotExp.setImagePool(shot.imagePool);
+		long start = System.nanoTime();
+		this.canvas.collectReadback(screenShotExp);
+		long collectNanos = System.nanoTime() - start - screenShotExp.getLastExportNanos();
+		shot.readbackNanos += collectNanos;
+		readbackQueue.removeFirst();
+		completeShot(shot);
+	}
+
+	private void completeShot(PendingShot shot) {
+		ScreenshotMetrics m = this.metrics;
+		if (m != null) {
+			m.recordShot(shot.readbackNanos, screenShotExp.getLastExportNanos());
+		}
+		shot.pooledImage = screenShotExp.getLastPooledImage();
+		screenShotExp.setImagePool(null);
+		if (!shot.future.set(screenShotExp.getLastImage())
+				&& shot.pooledImage != null) {
+			// cancelled in the meantime
+			shot.pooledImage.release();
+		}
+	}
+
+	private void failPendingShots(Throwable t) {
+		if (currentShot != null) {
+			currentShot.future.setException(t);
+			currentShot = null;
+		}
+		for (PendingShot shot : readbackQueue) {
+			shot.future.setException(t);
+		}
+		readbackQueue.clear();
+		PendingShot shot;
+		while ((shot = shotQueue.poll()) != null) {
+			shot.future.setException(t);
 		}
-		this.doDispose();
 	}
 
 	@Override
 	public void dispose() {
-		if (lastUncaughtException != null) {
+		synchronized (shotQueue) {
+			if (lastUncaughtException != null) {
+				return;
+			}
+			isExitRequested = true;
+			if (sharedContext == null) {
+				// shots queued before are rendered, later ones are rejected
+				shotQueue.add(EXIT);
+			}
+		}
+		if (sharedContext != null) {
+			sharedContext.call(new Callable<Void>() {
+				@Override
+				public Void call() {
+					failPendingShots(new IllegalStateException("Canvas is disposed"));
+					if (!isExitDone) {
+						doDispose();
+					}
+					return null;
+				}
+			});
 			return;
 		}
-		isExitRequested = true;
 		synchronized (exitDoneMonitor) {
-			synchronized (shotRequestedMonitor) {
-				shotRequestedMonitor.notifyAll(); // this is a hack, see run()
-			}
-
 			while (!isExitDone) {
 				try {
 					exitDoneMonitor.wait();
@@ -274,18 +885,27 @@ public class LwjglHeadlessScreenshotCanvas implements ScreenshotCanvas, Scene,
 	}
 
 	private void doDispose() {
-		// render one last empty frame, as required (see dispose() javadoc)
-		this.queueSceneUpdate(new SceneGraphUpdate() {
-			@Override
-			public void update(Node root) {
-				root.detachAllChildren();
+		// null if the canvas couldn't be initialized
+		if (this.canvas != null) {
+			// render one last empty frame, as required (see dispose() javadoc)
+			this.queueSceneUpdate(new SceneGraphUpdate() {
+				@Override
+				public void update(Node root) {
+					root.detachAllChildren();
+				}
+			});
+			try {
+				synchronized (FRAME_LOCK) {
+					try {
+						this.canvas.draw(false);
+					} finally {
+						// the frame fails as well if the canvas failed while drawing
+						this.canvas.cleanup();
+					}
+				}
+			} catch (Exception e) {
+				log.error("Error disposing canvas resources", e);
 			}
-		});
-		try {
-			this.canvas.draw();
-			this.canvas.cleanup();
-		} catch (Exception e) {
-			log.error("Error disposing canvas resources", e);
 		}
 		isExitDone = true;
         synchronized (exitDoneMonitor) {
@@ -0,0 +1,90 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the rows into a memory-mapped file as raw ARGB ints in big-endian
+ * byte order, top to bottom, without any header. Each strip is mapped on its
+ * own, so the file may be larger than 2 GB. A strip is forced to the disk and
+ * unmapped before the next one is written, so that neither the mappings nor
+ * the dirty pages pile up and the file can be deleted or truncated right
+ * after end().
+ */
+public class MappedFileRowSink implements RowSink, Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(MappedFileRowSink.class);
+
+	private final File file;
+
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private int width;
+
+	public MappedFileRowSink(File file) {
+		this.file = file;
+	}
+
+	@Override
+	public void begin(int width, int height) throws IOException {
+		this.width = width;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.raf.setLength((long) width * height * 4);
+		this.channel = raf.getChannel();
+	}
+
+	@Override
+	public void writeRows(int y, int rows, IntBuffer argb) throws IOException {
+		long bytesPerRow = (long) width * 4;
+		MappedByteBuffer strip = channel.map(FileChannel.MapMode.READ_WRITE, y * bytesPerRow, rows * bytesPerRow);
+		try {
+			strip.asIntBuffer().put(argb);
+			strip.force();
+		} finally {
+			unmap(strip);
+		}
+	}
+
+	/**
+	 * Releases the mapping now instead of when the buffer is garbage
+	 * collected, where the JVM allows it.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			log.debug("Mapping is released by the garbage collector", e);
+		}
+	}
+
+	@Override
+	public void end() throws IOException {
+		// the strips are on the disk already, the length may not be
+		channel.force(true);
+		close();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (raf != null) {
+			raf.close();
+			raf = null;
+			channel = null;
+		}
+	}
+
+}
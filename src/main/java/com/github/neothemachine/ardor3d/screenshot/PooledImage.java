@@ -0,0 +1,44 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A screenshot image leased from an {@link ImagePool}.
+ *
+ * The image must not be used anymore after calling {@link #release()}.
+ *
+ * @author maik
+ */
+public final class PooledImage {
+
+	private final ImagePool pool;
+	private final BufferedImage image;
+	private boolean leased = false;
+
+	PooledImage(ImagePool pool, BufferedImage image) {
+		this.pool = pool;
+		this.image = image;
+	}
+
+	public BufferedImage getImage() {
+		return this.image;
+	}
+
+	/**
+	 * Returns the image to its pool.
+	 */
+	public void release() {
+		this.pool.release(this);
+	}
+
+	// guarded by the pool
+	boolean isLeased() {
+		return this.leased;
+	}
+
+	// guarded by the pool
+	void setLeased(boolean leased) {
+		this.leased = leased;
+	}
+
+}
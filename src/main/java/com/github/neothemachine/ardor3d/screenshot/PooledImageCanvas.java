@@ -0,0 +1,18 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+/**
+ * A canvas which can take screenshots into images leased from an
+ * {@link ImagePool}, so that a warm canvas doesn't allocate pixel memory.
+ */
+public interface PooledImageCanvas {
+
+	/**
+	 * Takes a screenshot into an image leased from the given pool.
+	 * The caller must release the returned image when done with it.
+	 *
+	 * @param pool
+	 * @return
+	 */
+	PooledImage takeShot(ImagePool pool);
+
+}
@@ -0,0 +1,33 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+/**
+ * Receives the rows of an image from top to bottom, a strip at a time, so that
+ * images can be written which don't fit into memory, e.g. by a row-streaming
+ * encoder or {@link MappedFileRowSink}.
+ *
+ * @see TiledCanvas
+ */
+public interface RowSink {
+
+	void begin(int width, int height) throws IOException;
+
+	/**
+	 * @param y
+	 *            the first row of the strip, counted from the top
+	 * @param rows
+	 *            the number of rows of the strip
+	 * @param argb
+	 *            rows * width pixels as ARGB ints, top to bottom, between
+	 *            position and limit. Only valid during the call.
+	 */
+	void writeRows(int y, int rows, IntBuffer argb) throws IOException;
+
+	/**
+	 * Called after the last rows were written. Not called if rendering failed.
+	 */
+	void end() throws IOException;
+
+}
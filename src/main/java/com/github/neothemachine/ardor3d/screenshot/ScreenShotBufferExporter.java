@@ -1,7 +1,10 @@
 package com.github.neothemachine.ardor3d.screenshot;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 
 import com.ardor3d.image.ImageDataFormat;
 import com.ardor3d.util.screen.ScreenExportable;
@@ -9,50 +12,196 @@ import com.ardor3d.util.screen.ScreenExportable;
 /**
  * Alternative implementation of the built-in ScreenShotImageExporter which
  * holds the screenshot in a BufferedImage instead of writing it to a file.
- * 
+ *
  * The main purpose for creating this class are performance reasons.
- * 
+ * Whole rows are copied out of the buffer at once and converted straight into
+ * the backing array of the target image. If an {@link ImagePool} is set, the
+ * target image is leased from it, so that a warm exporter doesn't allocate
+ * anything per screenshot.
+ *
+ * In {@link ImageDataFormat#BGRA} mode, the bytes read back from OpenGL form
+ * little-endian ints which are already in the ARGB layout of
+ * {@link BufferedImage#TYPE_INT_ARGB}, so each row is a plain copy without any
+ * per-pixel work.
+ *
  * @author maik
  * @see com.ardor3d.image.util.ScreenShotImageExporter
  *
  */
 public class ScreenShotBufferExporter implements ScreenExportable {
 
+    private final ImageDataFormat format;
+
     private BufferedImage lastImage;
+    private PooledImage lastPooledImage;
+    private long lastExportNanos;
+
+    private ImagePool imagePool;
+
+    private boolean topDown = false;
+
+    // scratch space for one row of RGBA bytes, grows as needed
+    private byte[] row = new byte[0];
+
+    public ScreenShotBufferExporter() {
+        this(ImageDataFormat.RGBA);
+    }
+
+    /**
+     * @param format
+     *            the format to read the screen contents in, either
+     *            {@link ImageDataFormat#RGBA} or {@link ImageDataFormat#BGRA}
+     */
+    public ScreenShotBufferExporter(ImageDataFormat format) {
+        if (format != ImageDataFormat.RGBA && format != ImageDataFormat.BGRA) {
+            throw new IllegalArgumentException("Unsupported format: " + format);
+        }
+        this.format = format;
+    }
 
     public void export(final ByteBuffer data, final int width, final int height) {
 
-    	int[] rgb = new int[width*height];
+        final long start = System.nanoTime();
+        final BufferedImage img = createImage(width, height);
+        final int[] argb = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+
+        if (format == ImageDataFormat.BGRA) {
+            final ByteOrder order = data.order();
+            exportARGB(data.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(), width, height, argb);
+            data.order(order);
+        } else {
+            exportRGBA(data, width, height, argb);
+        }
+
+        lastImage = img;
+        lastExportNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Exports pixels which are already ARGB ints, like BGRA data read into a
+     * little-endian IntBuffer.
+     *
+     * @see LwjglHeadlessCanvas#getDataBuffer()
+     */
+    public void export(final IntBuffer data, final int width, final int height) {
+        final long start = System.nanoTime();
+        final BufferedImage img = createImage(width, height);
+        exportARGB(data, width, height, ((DataBufferInt) img.getRaster().getDataBuffer()).getData());
+        data.rewind();
+        lastImage = img;
+        lastExportNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Exports a region of ARGB pixels, like one cell of an atlas.
+     *
+     * @param dataWidth
+     * @param dataHeight
+     *            the size of the image in the buffer
+     * @param x
+     * @param y
+     *            of the upper left corner of the region, counted from the top
+     *            of the image
+     * @see LwjglHeadlessCanvas#drawCell(int, int, int, int, Runnable)
+     */
+    public void exportRegion(final IntBuffer data, final int dataWidth, final int dataHeight, final int x,
+            final int y, final int width, final int height) {
+        final long start = System.nanoTime();
+        final BufferedImage img = createImage(width, height);
+        final int[] argb = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        for (int row = 0; row < height; row++) {
+            final int dataRow = topDown ? y + row : dataHeight - 1 - y - row;
+            data.position(dataRow * dataWidth + x);
+            data.get(argb, row * width, width);
+        }
+        data.rewind();
+        lastImage = img;
+        lastExportNanos = System.nanoTime() - start;
+    }
+
+    private void exportARGB(final IntBuffer pixels, final int width, final int height, final int[] argb) {
+        if (topDown) {
+            pixels.position(0);
+            pixels.get(argb, 0, width * height);
+        } else {
+            // OpenGL delivers the rows bottom-up
+            for (int y = 0; y < height; y++) {
+                pixels.position((height - y - 1) * width);
+                pixels.get(argb, y * width, width);
+            }
+        }
+    }
 
-        int index, r, g, b, a;
-        int argb;
+    private void exportRGBA(final ByteBuffer data, final int width, final int height, final int[] argb) {
+        final int rowBytes = 4 * width;
+        if (row.length < rowBytes) {
+            row = new byte[rowBytes];
+        }
+
+        // OpenGL delivers the rows bottom-up unless they were flipped already
         int currentIndex = 0;
         for (int y = 0; y < height; y++) {
-        	for (int x = 0; x < width; x++) {            
-                index = 4 * ((height - y - 1) * width + x);
-                r = data.get(index + 0);
-                g = data.get(index + 1);
-                b = data.get(index + 2);
-                a = data.get(index + 3);
-
-                argb = ((a & 0xFF) << 24) | ((r & 0xFF) << 16) | ((g & 0xFF) << 8) | (b & 0xFF);
-                
-                rgb[currentIndex++] = argb;
+            data.position((topDown ? y : height - y - 1) * rowBytes);
+            data.get(row, 0, rowBytes);
+            for (int i = 0; i < rowBytes; i += 4) {
+                argb[currentIndex++] = ((row[i + 3] & 0xFF) << 24) | ((row[i] & 0xFF) << 16)
+                        | ((row[i + 1] & 0xFF) << 8) | (row[i + 2] & 0xFF);
             }
         }
-        
-        final BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        img.getRaster().setDataElements(0, 0, width, height, rgb);
-                
-        lastImage = img;
+        data.rewind();
+    }
+
+    private BufferedImage createImage(final int width, final int height) {
+        if (imagePool != null) {
+            lastPooledImage = imagePool.lease(width, height);
+            return lastPooledImage.getImage();
+        }
+        lastPooledImage = null;
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
     }
 
     public ImageDataFormat getFormat() {
-    	return ImageDataFormat.RGBA;
+    	return format;
     }
-    
+
     public BufferedImage getLastImage() {
     	return lastImage;
     }
-}
 
+    /**
+     * @return how long the last export took, including getting the image
+     */
+    public long getLastExportNanos() {
+        return lastExportNanos;
+    }
+
+    /**
+     * @return the lease of the last image if it was taken from an image pool,
+     *         null otherwise
+     */
+    public PooledImage getLastPooledImage() {
+        return lastPooledImage;
+    }
+
+    /**
+     * Sets the pool which images of following exports are leased from.
+     *
+     * @param imagePool
+     *            the pool, or null to create a new image for each export
+     */
+    public void setImagePool(ImagePool imagePool) {
+        this.imagePool = imagePool;
+    }
+
+    /**
+     * Sets whether the rows of following exports are ordered top to bottom,
+     * e.g. because they were flipped on the GPU already. By default, the
+     * bottom to top order of OpenGL is expected.
+     *
+     * @param topDown
+     * @see LwjglHeadlessCanvas#isFlippingRows()
+     */
+    public void setTopDown(boolean topDown) {
+        this.topDown = topDown;
+    }
+}
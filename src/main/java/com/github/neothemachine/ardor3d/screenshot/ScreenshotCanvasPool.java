@@ -1,29 +1,70 @@
 package com.github.neothemachine.ardor3d.screenshot;
 
+import java.awt.image.BufferedImage;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.javatuples.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.ardor3d.scenegraph.Node;
 import com.ardor3d.util.ContextGarbageCollector;
 import com.github.neothemachine.ardor3d.screenshot.UpdateableCanvas.SceneGraphUpdate;
 import com.google.common.base.Predicate;
+import com.google.common.base.Ticker;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.BindingAnnotation;
 
+/**
+ * Pool of screenshot canvases.
+ *
+ * Unused canvases are indexed by size. Callers which have to wait for a
+ * canvas queue up in FIFO order and are woken up one at a time: a returned
+ * canvas goes straight to the longest waiting request for its size, otherwise
+ * the freed slot goes to the longest waiting request of any size.
+ */
 @Singleton
 public class ScreenshotCanvasPool {
 
+	private static final Logger log = LoggerFactory.getLogger(ScreenshotCanvasPool.class);
+
 	static {
 		System.setProperty("ardor3d.useMultipleContexts", "true");
 	}
@@ -33,200 +74,1550 @@ public class ScreenshotCanvasPool {
 	}
 
 	private final ScreenshotCanvasFactory factory;
-	
+
 	// only LwjglAwtCanvas and JoglAwtCanvas support multiple windows/canvases
 	@BindingAnnotation
 	@Retention(RetentionPolicy.RUNTIME)
 	public @interface MaxCanvases {}
-	
+
 	private final int maxCanvases;
 
-	private final Map<ScreenshotCanvas, Object> unused = new HashMap<ScreenshotCanvas, Object>();
+	/**
+	 * How many canvases may be in use at the same time, the default is 1.
+	 *
+	 * LwjglHeadlessScreenshotCanvases render on their own threads. As Ardor3D
+	 * keeps the current render context and camera in static fields, they draw
+	 * their frames one at a time, but read back and export the pixels of their
+	 * shots while other canvases draw. {@link SharedContextScreenshotCanvas}es
+	 * all render on the one thread of their shared context, so more than one
+	 * of them only saves waiting for a canvas.
+	 */
+	@BindingAnnotation
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface MaxConcurrentCanvases {}
+
+	private int maxConcurrentCanvases = 1;
+
+	/**
+	 * If bigger than 1, canvases are created with their width and height rounded
+	 * up to multiples of this value and serve all requested sizes which round to
+	 * the same size, by rendering and exporting only the requested region.
+	 * This needs canvases implementing {@link CroppableCanvas}.
+	 * The canvases then return the bucket size from getSize(), the size of
+	 * their images is {@link #getImageSize(ScreenshotCanvas)}.
+	 */
+	@BindingAnnotation
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface SizeBucket {}
+
+	private int sizeBucket = 1;
+
+	/**
+	 * Unused canvases which weren't used for this many milliseconds are
+	 * disposed in the background. 0, the default, keeps them forever.
+	 */
+	@BindingAnnotation
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface IdleTimeoutMillis {}
+
+	/**
+	 * How many unused canvases are never disposed due to the idle timeout.
+	 */
+	@BindingAnnotation
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface MinIdleCanvases {}
+
+	private long idleTimeoutNanos = 0;
+
+	private int minIdleCanvases = 0;
+
+	private ScheduledExecutorService reaper;
+
+	private ScheduledFuture<?> reaperTask;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// source of all times measured by the pool
+	private Ticker ticker = Ticker.systemTicker();
+
+	// unused canvases by size, most recently returned first
+	private final Map<IntDimension, Deque<ScreenshotCanvas>> unused = new HashMap<IntDimension, Deque<ScreenshotCanvas>>();
+
+	// entries of unused canvases, in the order they were returned
+	private final Map<ScreenshotCanvas, CanvasEntry> unusedEntries = new LinkedHashMap<ScreenshotCanvas, CanvasEntry>();
+
+	// unused canvases by the index keys of their states
+	private final Map<Object, Set<ScreenshotCanvas>> stateIndex = new HashMap<Object, Set<ScreenshotCanvas>>();
+
+	// index keys of unused canvases, as they were when the canvas was returned
+	private final Map<ScreenshotCanvas, Set<Object>> indexedKeys = new HashMap<ScreenshotCanvas, Set<Object>>();
+
+	// unused canvases with a state by the class of their state
+	private final Map<Class<?>, Set<ScreenshotCanvas>> stateTypes = new HashMap<Class<?>, Set<ScreenshotCanvas>>();
 
 	private final Set<ScreenshotCanvas> inUse = new HashSet<ScreenshotCanvas>();
 
+	// entries of all canvases
+	private final Map<ScreenshotCanvas, CanvasEntry> entries = new HashMap<ScreenshotCanvas, CanvasEntry>();
+
+	// canvases removed after their render thread died, which their users may
+	// still return
+	private final Set<ScreenshotCanvas> failed = Collections.newSetFromMap(
+			new WeakHashMap<ScreenshotCanvas, Boolean>());
+
+	private EvictionPolicy evictionPolicy = new EvictionPolicy.CostWeighted();
+
+	private volatile ScreenshotMetrics metrics = new ScreenshotMetrics();
+
+	// canvases which are being created to be unused, by size
+	private final Multiset<IntDimension> pendingCreations = HashMultiset.create();
+
+	// how many unused canvases of a size are kept ready
+	private final Map<IntDimension, Integer> keepWarm = new HashMap<IntDimension, Integer>();
+
+	private ThreadPoolExecutor warmUpExecutor;
+
+	// canvas creations and idle disposals running in the background, they
+	// count against the limit of canvases in use
+	private int backgroundSlots = 0;
+
+	// signalled when nothing runs in the background anymore
+	private final Condition backgroundDone = lock.newCondition();
+
+	// incremented by disposeAll(), canvases created for an earlier
+	// generation are disposed right away
+	private int generation = 0;
+
+	// set while disposeAll() waits for the background work, no canvas is
+	// leased or created then
+	private boolean disposing = false;
+
+	/**
+	 * Priority of a request which has to wait for a canvas.
+	 */
+	public enum Priority {
+		/**
+		 * Served before bulk requests, e.g. previews a user waits for.
+		 */
+		INTERACTIVE,
+		/**
+		 * Served when no interactive request is waiting, or when it waited
+		 * longer than the priority aging time.
+		 */
+		BULK
+	}
+
+	/**
+	 * After how many milliseconds a waiting bulk request is served like an
+	 * interactive one. The default is 10 seconds.
+	 */
+	@BindingAnnotation
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface PriorityAgingMillis {}
+
+	private long priorityAgingNanos = TimeUnit.SECONDS.toNanos(10);
+
+	/**
+	 * A request waiting for a canvas.
+	 */
+	private final class Waiter {
+		// null if the request can't take over a returned canvas directly
+		final IntDimension size;
+		final Priority priority;
+		final Condition condition = lock.newCondition();
+		ScreenshotCanvas canvas;
+		boolean slotGranted = false;
+
+		// set for requests of acquireAsync(), which are served by the hand-off thread
+		final IntDimension requestedSize;
+		final SettableFuture<ScreenshotCanvas> future;
+
+		final long enqueuedAt = ticker.read();
+
+		Waiter(IntDimension size, Priority priority) {
+			this(size, priority, null, null);
+		}
+
+		Waiter(IntDimension size, Priority priority, IntDimension requestedSize,
+				SettableFuture<ScreenshotCanvas> future) {
+			this.size = size;
+			this.priority = priority;
+			this.requestedSize = requestedSize;
+			this.future = future;
+		}
+
+		/**
+		 * Whether the request is interactive or a bulk request that aged.
+		 */
+		boolean isUrgent(long now) {
+			return priority == Priority.INTERACTIVE || now - enqueuedAt >= priorityAgingNanos;
+		}
+
+		boolean isServed() {
+			return canvas != null || slotGranted;
+		}
+
+		void wake() {
+			if (future == null) {
+				condition.signal();
+			} else {
+				handOff(this);
+			}
+		}
+	}
+
+	// all waiting requests, longest waiting first
+	private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+
+	// waiting requests which take over a returned canvas of their size
+	private final Map<IntDimension, Deque<Waiter>> sizeWaiters = new HashMap<IntDimension, Deque<Waiter>>();
+
+	// slots granted to waiters which haven't woken up yet
+	private int grantedSlots = 0;
+
+	// completes the futures of acquireAsync() and removes failed canvases
+	private ExecutorService handOffExecutor;
+
 	@Inject
 	public ScreenshotCanvasPool(ScreenshotCanvasFactory factory, @MaxCanvases int maxCanvases) {
 		this.factory = factory;
 		this.maxCanvases = maxCanvases;
 	}
 
+	@com.google.inject.Inject(optional = true)
+	public void setMaxConcurrentCanvases(@MaxConcurrentCanvases int maxConcurrentCanvases) {
+		if (maxConcurrentCanvases < 1) {
+			throw new IllegalArgumentException("At least one canvas must be usable");
+		}
+		lock.lock();
+		try {
+			this.maxConcurrentCanvases = maxConcurrentCanvases;
+			grantSlots();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@com.google.inject.Inject(optional = true)
+	public void setSizeBucket(@SizeBucket int sizeBucket) {
+		if (sizeBucket < 1) {
+			throw new IllegalArgumentException("Size bucket must be positive");
+		}
+		lock.lock();
+		try {
+			if (sizeBucket > 1) {
+				for (ScreenshotCanvas canvas : this.entries.keySet()) {
+					checkCroppable(canvas);
+				}
+			}
+			this.sizeBucket = sizeBucket;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@com.google.inject.Inject(optional = true)
+	public void setIdleTimeout(@IdleTimeoutMillis long idleTimeoutMillis) {
+		if (idleTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Idle timeout must not be negative");
+		}
+		lock.lock();
+		try {
+			this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+			if (this.reaperTask != null) {
+				this.reaperTask.cancel(false);
+				this.reaperTask = null;
+			}
+			scheduleReaper();
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	/**
-	 * Gets a canvas in initial state.
+	 * Starts the reaper if there is an idle timeout and it isn't running.
+	 * disposeAll() stops it, it starts again when a canvas becomes unused.
+	 */
+	private void scheduleReaper() {
+		if (this.reaperTask != null || this.idleTimeoutNanos == 0) {
+			return;
+		}
+		if (this.reaper == null) {
+			this.reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+					.setDaemon(true).setNameFormat("canvas-reaper-%d").build());
+		}
+		long period = Math.max(this.idleTimeoutNanos / 2, TimeUnit.MILLISECONDS.toNanos(1));
+		this.reaperTask = this.reaper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				reapIdleCanvases();
+			}
+		}, period, period, TimeUnit.NANOSECONDS);
+	}
+
+	boolean isReaperScheduled() {
+		lock.lock();
+		try {
+			return this.reaperTask != null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@com.google.inject.Inject(optional = true)
+	public void setMinIdleCanvases(@MinIdleCanvases int minIdleCanvases) {
+		if (minIdleCanvases < 0) {
+			throw new IllegalArgumentException("Minimum must not be negative");
+		}
+		lock.lock();
+		try {
+			this.minIdleCanvases = minIdleCanvases;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Disposes unused canvases which weren't used for longer than the idle
+	 * timeout, keeping at least the minimum of unused canvases and the
+	 * canvases of sizes which are kept warm.
 	 * 
+	 * Disposing a canvas may render on it, like the AWT and NEWT canvases do,
+	 * so it takes a slot of the canvases in use. If a request waits or no
+	 * slot is free, nothing is disposed until the next run.
+	 * The canvases are disposed without holding the lock.
+	 * 
+	 * @return how many canvases were disposed
+	 */
+	int reapIdleCanvases() {
+		List<ScreenshotCanvas> expired = new ArrayList<ScreenshotCanvas>();
+		lock.lock();
+		try {
+			if (this.idleTimeoutNanos == 0 || !this.waiters.isEmpty() || !canLease()) {
+				return 0;
+			}
+			long now = this.ticker.read();
+			// unused canvases are ordered by return time, oldest first
+			for (CanvasEntry entry : new ArrayList<CanvasEntry>(this.unusedEntries.values())) {
+				if (this.unusedEntries.size() <= this.minIdleCanvases) {
+					break;
+				}
+				if (now - entry.getReturnedAt() < this.idleTimeoutNanos) {
+					break;
+				}
+				if (isKeptWarm(entry.getCanvas())) {
+					continue;
+				}
+				removeUnused(entry.getCanvas());
+				this.entries.remove(entry.getCanvas());
+				expired.add(entry.getCanvas());
+			}
+			if (expired.isEmpty()) {
+				return 0;
+			}
+			this.backgroundSlots++;
+		} finally {
+			lock.unlock();
+		}
+		try {
+			for (ScreenshotCanvas canvas : expired) {
+				try {
+					disposeCanvas(canvas);
+					this.metrics.recordIdleDisposal();
+				} catch (RuntimeException e) {
+					log.error("Could not dispose idle canvas", e);
+				}
+			}
+		} finally {
+			lock.lock();
+			try {
+				backgroundWorkDone();
+			} finally {
+				lock.unlock();
+			}
+		}
+		return expired.size();
+	}
+
+	/**
+	 * The size of the canvas which serves the given size.
+	 */
+	private IntDimension bucket(IntDimension size) {
+		if (this.sizeBucket == 1) {
+			return size;
+		}
+		return new IntDimension(roundUp(size.getWidth()), roundUp(size.getHeight()));
+	}
+
+	private int roundUp(int length) {
+		return (length + this.sizeBucket - 1) / this.sizeBucket * this.sizeBucket;
+	}
+
+	/**
+	 * Makes a canvas of the bucket size render the requested size.
+	 */
+	private void crop(ScreenshotCanvas canvas, IntDimension size) {
+		if (this.sizeBucket == 1) {
+			return;
+		}
+		((CroppableCanvas) canvas).setCropSize(canvas.getSize().equals(size) ? null : size);
+	}
+
+	private void checkCroppable(ScreenshotCanvas canvas) {
+		if (!(canvas instanceof CroppableCanvas)) {
+			throw new IllegalStateException("Size bucketing needs canvases implementing CroppableCanvas");
+		}
+	}
+
+	/**
+	 * Rejects a new canvas which can't serve the sizes of its bucket,
+	 * before it's leased or indexed.
+	 */
+	private void checkCreated(ScreenshotCanvas canvas) {
+		if (this.sizeBucket > 1 && !(canvas instanceof CroppableCanvas)) {
+			disposeCanvas(canvas);
+			checkCroppable(canvas);
+		}
+	}
+
+	/**
+	 * The size of the images a canvas of the pool renders, which is smaller
+	 * than its size if it was cropped for size bucketing. Use it e.g. for
+	 * the aspect ratio of a camera.
+	 */
+	public static IntDimension getImageSize(ScreenshotCanvas canvas) {
+		if (canvas instanceof CroppableCanvas) {
+			return ((CroppableCanvas) canvas).getCropSize();
+		}
+		return canvas.getSize();
+	}
+
+	/**
+	 * Sets where the pool records its metrics. The GPU memory of the canvases
+	 * implementing {@link GpuResourceOwner} is recorded there as well. With
+	 * Guice, the canvases record their shots into the same instance.
+	 */
+	@com.google.inject.Inject(optional = true)
+	public void setMetrics(ScreenshotMetrics metrics) {
+		lock.lock();
+		try {
+			this.metrics = metrics;
+			for (ScreenshotCanvas canvas : this.entries.keySet()) {
+				if (canvas instanceof GpuResourceOwner) {
+					((GpuResourceOwner) canvas).getGpuResources().setMetrics(metrics);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public ScreenshotMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Estimated GPU memory held by the canvases of the pool, used and unused.
+	 * Only canvases implementing {@link GpuResourceOwner} are counted, and
+	 * only the objects described at {@link GpuResourceTracker}.
+	 */
+	public long getGpuBytes() {
+		lock.lock();
+		try {
+			long bytes = 0;
+			for (ScreenshotCanvas canvas : entries.keySet()) {
+				if (canvas instanceof GpuResourceOwner) {
+					bytes += ((GpuResourceOwner) canvas).getGpuResources().getLiveBytes();
+				}
+			}
+			return bytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sets the policy which decides which unused canvas is disposed, or whose
+	 * state is discarded, when a canvas is needed.
+	 * The default is {@link EvictionPolicy.CostWeighted}.
+	 */
+	@com.google.inject.Inject(optional = true)
+	public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+		lock.lock();
+		try {
+			this.evictionPolicy = evictionPolicy;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets a canvas in initial state.
+	 *
+	 * @param size
+	 * @return
+	 */
+	public ScreenshotCanvas getCanvas(final IntDimension size) {
+		return getCanvas(size, Priority.INTERACTIVE);
+	}
+
+	/**
+	 * Gets a canvas in initial state. Waiting requests are served by priority,
+	 * requests of the same priority in the order they arrived.
+	 */
+	public ScreenshotCanvas getCanvas(final IntDimension size, Priority priority) {
+		lock.lock();
+		try {
+			// at most MaxConcurrentCanvases canvases are in use at the same time
+			IntDimension canvasSize = bucket(size);
+			Waiter waiter = awaitTurnUninterruptibly(canvasSize, priority);
+			ScreenshotCanvas canvas = waiter != null && waiter.canvas != null
+					? waiter.canvas : acquireCanvas(canvasSize);
+			crop(canvas, size);
+			replenish();
+			return canvas;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets a canvas in initial state, but waits at most the given time
+	 * for another canvas to be returned.
+	 *
 	 * @param size
+	 * @param timeout
+	 * @param unit
 	 * @return
+	 * @throws InterruptedException
+	 * @throws TimeoutException if no canvas got available in time
 	 */
-	public synchronized ScreenshotCanvas getCanvas(final IntDimension size) {
+	public ScreenshotCanvas getCanvas(final IntDimension size,
+			long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		return getCanvas(size, Priority.INTERACTIVE, timeout, unit);
+	}
 
-		int unusedCount = this.unused.size();
-		int usedCount = this.inUse.size();
+	/**
+	 * Gets a canvas in initial state with the given priority, but waits at
+	 * most the given time for another canvas to be returned.
+	 *
+	 * @throws TimeoutException if no canvas got available in time
+	 */
+	public ScreenshotCanvas getCanvas(final IntDimension size, Priority priority,
+			long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		lock.lock();
+		try {
+			IntDimension canvasSize = bucket(size);
+			Waiter waiter = awaitTurn(canvasSize, priority, unit.toNanos(timeout));
+			ScreenshotCanvas canvas = waiter != null && waiter.canvas != null
+					? waiter.canvas : acquireCanvas(canvasSize);
+			crop(canvas, size);
+			replenish();
+			return canvas;
+		} finally {
+			lock.unlock();
+		}
+	}
 
-		// only one canvas can be used at the same time
-		// even if the drivers would allow more than one canvas, it wouldn't be any more
-		// efficient due to the many OpenGL context switches
-		while (usedCount > 0) {
-			try {
-				this.wait();
-			} catch (InterruptedException e) {
+	/**
+	 * Sets after how many milliseconds a waiting bulk request is served like
+	 * an interactive one, so that bulk requests aren't starved.
+	 */
+	@com.google.inject.Inject(optional = true)
+	public void setPriorityAging(@PriorityAgingMillis long priorityAgingMillis) {
+		lock.lock();
+		try {
+			this.priorityAgingNanos = TimeUnit.MILLISECONDS.toNanos(priorityAgingMillis);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sets where the pool reads the time from, for the idle timeout, priority
+	 * aging, the metrics and the bookkeeping of the eviction policies.
+	 * The default is the system ticker.
+	 */
+	void setTicker(Ticker ticker) {
+		lock.lock();
+		try {
+			this.ticker = ticker;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets a canvas in initial state if that's possible without waiting for
+	 * another request. A new canvas might still be created.
+	 *
+	 * @return the canvas, or null if the caller would have to wait
+	 */
+	public ScreenshotCanvas tryGetCanvas(final IntDimension size) {
+		lock.lock();
+		try {
+			if (!this.waiters.isEmpty() || !canLease()) {
+				return null;
+			}
+			ScreenshotCanvas canvas = acquireCanvas(bucket(size));
+			crop(canvas, size);
+			replenish();
+			return canvas;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets a canvas in initial state without blocking the caller.
+	 * The future completes when it's the turn of the request, in the same
+	 * order as the blocking getCanvas() methods. Cancelling the future gives
+	 * up waiting, a canvas which was handed out in the meantime is returned
+	 * to the pool.
+	 *
+	 * Listeners without executor run on a thread of the pool and should not
+	 * render on the canvas there.
+	 */
+	public ListenableFuture<ScreenshotCanvas> acquireAsync(final IntDimension size) {
+		return acquireAsync(size, Priority.INTERACTIVE);
+	}
+
+	/**
+	 * Gets a canvas in initial state with the given priority without blocking
+	 * the caller.
+	 *
+	 * @see #acquireAsync(IntDimension)
+	 */
+	public ListenableFuture<ScreenshotCanvas> acquireAsync(final IntDimension size, Priority priority) {
+		lock.lock();
+		try {
+			IntDimension canvasSize = bucket(size);
+			if (this.waiters.isEmpty() && canLease()) {
+				this.metrics.recordWait(0);
+				try {
+					ScreenshotCanvas canvas = acquireCanvas(canvasSize);
+					crop(canvas, size);
+					replenish();
+					return Futures.immediateFuture(canvas);
+				} catch (RuntimeException e) {
+					return Futures.immediateFailedFuture(e);
+				}
+			}
+			final Waiter waiter = enqueue(new Waiter(canvasSize, priority, size,
+					SettableFuture.<ScreenshotCanvas>create()));
+			waiter.future.addListener(new Runnable() {
+				@Override
+				public void run() {
+					if (!waiter.future.isCancelled()) {
+						return;
+					}
+					lock.lock();
+					try {
+						// otherwise the hand-off returns the canvas
+						if (!waiter.isServed()) {
+							dequeue(waiter);
+						}
+					} finally {
+						lock.unlock();
+					}
+				}
+			}, MoreExecutors.sameThreadExecutor());
+			return waiter.future;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Leases the canvas for a served request of acquireAsync() and completes
+	 * its future outside of the lock.
+	 */
+	private void handOff(final Waiter waiter) {
+		handOffExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				ScreenshotCanvas canvas;
+				lock.lock();
+				try {
+					claim(waiter);
+					canvas = waiter.canvas != null ? waiter.canvas : acquireCanvas(waiter.size);
+					crop(canvas, waiter.requestedSize);
+					replenish();
+				} catch (RuntimeException e) {
+					grantSlots();
+					waiter.future.setException(e);
+					return;
+				} finally {
+					lock.unlock();
+				}
+				if (!waiter.future.set(canvas)) {
+					returnCanvas(canvas);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Whether another canvas may be handed out without waiting.
+	 */
+	private ExecutorService handOffExecutor() {
+		if (this.handOffExecutor == null) {
+			this.handOffExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+					.setDaemon(true).setNameFormat("canvas-handoff-%d").build());
+		}
+		return this.handOffExecutor;
+	}
+
+	/**
+	 * Waits until the tasks of the hand-off thread submitted so far are done.
+	 */
+	void awaitHandOffs() throws InterruptedException, ExecutionException {
+		Future<?> done;
+		lock.lock();
+		try {
+			done = handOffExecutor().submit(new Runnable() {
+				@Override
+				public void run() {
+				}
+			});
+		} finally {
+			lock.unlock();
+		}
+		done.get();
+	}
+
+	private boolean canLease() {
+		return !this.disposing && this.inUse.size() + this.grantedSlots + this.backgroundSlots
+				< Math.min(this.maxConcurrentCanvases, this.maxCanvases);
+	}
+
+	/**
+	 * Waits until it's the turn of the caller. Interruption doesn't stop waiting,
+	 * the interrupt status is kept.
+	 *
+	 * @return null if a canvas may be leased right away, otherwise the served waiter
+	 */
+	private Waiter awaitTurnUninterruptibly(IntDimension size, Priority priority) {
+		if (this.waiters.isEmpty() && canLease()) {
+			this.metrics.recordWait(0);
+			return null;
+		}
+		Waiter waiter = enqueue(new Waiter(size, priority));
+		while (!waiter.isServed()) {
+			waiter.condition.awaitUninterruptibly();
+		}
+		return claim(waiter);
+	}
+
+	/**
+	 * Waits until it's the turn of the caller, but at most the given time.
+	 *
+	 * @return null if a canvas may be leased right away, otherwise the served waiter
+	 */
+	private Waiter awaitTurn(IntDimension size, Priority priority, long nanos)
+			throws InterruptedException, TimeoutException {
+		if (this.waiters.isEmpty() && canLease()) {
+			this.metrics.recordWait(0);
+			return null;
+		}
+		Waiter waiter = enqueue(new Waiter(size, priority));
+		boolean served = false;
+		try {
+			while (!waiter.isServed()) {
+				if (nanos <= 0) {
+					throw new TimeoutException("No canvas available for " + size.getWidth()
+							+ "x" + size.getHeight() + " within the timeout");
+				}
+				nanos = waiter.condition.awaitNanos(nanos);
 			}
-			unusedCount = this.unused.size();
-			usedCount = this.inUse.size();
+			served = true;
+		} finally {
+			if (!served) {
+				abandon(waiter);
+			}
+		}
+		return claim(waiter);
+	}
+
+	private Waiter enqueue(Waiter waiter) {
+		this.waiters.add(waiter);
+		if (waiter.size != null) {
+			Deque<Waiter> queue = this.sizeWaiters.get(waiter.size);
+			if (queue == null) {
+				queue = new ArrayDeque<Waiter>();
+				this.sizeWaiters.put(waiter.size, queue);
+			}
+			queue.add(waiter);
 		}
-		
+		return waiter;
+	}
+
+	private void dequeue(Waiter waiter) {
+		this.waiters.remove(waiter);
+		if (waiter.size != null) {
+			Deque<Waiter> queue = this.sizeWaiters.get(waiter.size);
+			queue.remove(waiter);
+			if (queue.isEmpty()) {
+				this.sizeWaiters.remove(waiter.size);
+			}
+		}
+	}
+
+	/**
+	 * Turns a granted slot into a lease which is taken in acquireCanvas().
+	 */
+	private Waiter claim(Waiter waiter) {
+		if (waiter.slotGranted) {
+			this.grantedSlots--;
+		}
+		this.metrics.recordWait(this.ticker.read() - waiter.enqueuedAt);
+		return waiter;
+	}
+
+	/**
+	 * Gives up waiting, passing on whatever was granted in the meantime.
+	 */
+	private void abandon(Waiter waiter) {
+		if (waiter.canvas != null) {
+			release(waiter.canvas, null);
+		} else if (waiter.slotGranted) {
+			this.grantedSlots--;
+			grantSlots();
+		} else {
+			dequeue(waiter);
+		}
+	}
+
+	/**
+	 * The longest waiting urgent request of the queue, otherwise the longest
+	 * waiting one.
+	 */
+	private Waiter next(Collection<Waiter> queue, long now) {
+		for (Waiter waiter : queue) {
+			if (waiter.isUrgent(now)) {
+				return waiter;
+			}
+		}
+		return queue.iterator().next();
+	}
+
+	/**
+	 * Wakes up the next requests as long as canvases may be leased, and
+	 * passes the remaining slots on to background creations.
+	 */
+	private void grantSlots() {
+		long now = this.ticker.read();
+		while (!this.waiters.isEmpty() && canLease()) {
+			Waiter waiter = next(this.waiters, now);
+			dequeue(waiter);
+			waiter.slotGranted = true;
+			this.grantedSlots++;
+			waiter.wake();
+		}
+		replenish();
+	}
+
+	private ScreenshotCanvas acquireCanvas(final IntDimension size) {
+
 		/*
 		 * Order:
 		 * 1. Canvas of matching size
-		 * 2. Resizable canvas with size changed
-		 * 3. Dispose a canvas (if pool full) and create a new one with the requested size
+		 * 2. If the pool is full, the eviction policy picks an unused canvas,
+		 *    which gets the requested size if it's resizable, otherwise it's
+		 *    disposed
+		 * 3. New canvas with the requested size
+		 * 
+		 * The state of the chosen canvas is lost, so in 1. and 2. the eviction
+		 * policy picks the canvas whose state is the cheapest to rebuild.
+		 * Canvases of sizes which are kept warm are only picked in 2. if
+		 * there are no others, and then they are disposed, not resized.
 		 */
 
 		// 1. Canvas of matching size
-		for (ScreenshotCanvas canvas : this.unused.keySet()) {
-			if (canvas.getSize().equals(size)) {
-				clearSceneGraph(canvas);
-				this.inUse.add(canvas);
-				this.unused.remove(canvas);
-				return canvas;
-			}
+		Deque<ScreenshotCanvas> sizeMatches = this.unused.get(size);
+		if (sizeMatches != null) {
+			ScreenshotCanvas canvas = selectVictim(sizeMatches);
+			lease(canvas, false);
+			clearSceneGraph(canvas);
+			this.metrics.recordExactSizeHit();
+			return canvas;
 		}
-		
-		if (this.unused.size() > 0) {
-			// 2. Resizable canvas with size changed
-			for (ScreenshotCanvas canvas : this.unused.keySet()) {
-				if (canvas instanceof ResizableCanvas) {
-					clearSceneGraph(canvas);
-					((ResizableCanvas) canvas).setSize(size);
-					this.inUse.add(canvas);
-					this.unused.remove(canvas);
-					return canvas;
+
+		// 2. Resize or dispose an unused canvas if the pool is full
+		// canvases which are being created in the background don't count,
+		// they are disposed when they're done if there's no room left
+		if (!this.unusedEntries.isEmpty()
+				&& this.inUse.size() + this.unusedEntries.size() >= this.maxCanvases) {
+			List<ScreenshotCanvas> candidates = new ArrayList<ScreenshotCanvas>();
+			for (ScreenshotCanvas canvas : this.unusedEntries.keySet()) {
+				if (!isKeptWarm(canvas)) {
+					candidates.add(canvas);
 				}
 			}
-
-			// 3. Dispose a canvas (if pool full) ...
-			if (usedCount + unusedCount == this.maxCanvases) {
-				ScreenshotCanvas canvas = this.unused.keySet().iterator().next();
-				canvas.dispose();
-				this.unused.remove(canvas);
+			boolean keptWarm = candidates.isEmpty();
+			ScreenshotCanvas canvas = selectVictim(keptWarm ? this.unusedEntries.keySet() : candidates);
+			if (!keptWarm && canvas instanceof ResizableCanvas) {
+				lease(canvas, false);
+				clearSceneGraph(canvas);
+				((ResizableCanvas) canvas).setSize(size);
+				this.metrics.recordResizeHit();
+				return canvas;
 			}
+			removeUnused(canvas);
+			this.entries.remove(canvas);
+			disposeCanvas(canvas);
+			this.metrics.recordEviction();
 		}
-		
-		// 3. ... and create a new one with the requested size
-		final ScreenshotCanvas canvas = this.factory.create(size); 
+
+		// 3. New canvas with the requested size
+		long start = this.ticker.read();
+		ScreenshotCanvas canvas = this.factory.create(size);
+		long createNanos = this.ticker.read() - start;
+		checkCreated(canvas);
+		CanvasEntry entry = register(canvas, createNanos);
 		this.inUse.add(canvas);
-		
+		entry.leased(false, this.ticker.read());
+		this.metrics.recordMiss();
+
+		return canvas;
+	}
+
+	/**
+	 * Whether an unused canvas is needed to keep its size warm.
+	 */
+	private boolean isKeptWarm(ScreenshotCanvas canvas) {
+		Integer warm = this.keepWarm.get(canvas.getSize());
+		return warm != null && this.unused.get(canvas.getSize()).size() <= warm;
+	}
+
+	private CanvasEntry register(final ScreenshotCanvas canvas, long createNanos) {
+		CanvasEntry entry = new CanvasEntry(canvas, createNanos, this.ticker.read());
+		this.entries.put(canvas, entry);
+		this.metrics.recordCreate(createNanos);
+		if (canvas instanceof GpuResourceOwner) {
+			((GpuResourceOwner) canvas).getGpuResources().setMetrics(this.metrics);
+		}
+
+		final ExecutorService executor = handOffExecutor();
 		canvas.addUncaughtExceptionHandler(new UncaughtExceptionHandler() {
 			@Override
 			public void uncaughtException(Thread t, Throwable e) {
-				canvas.dispose();
-				inUse.remove(canvas);
-				unused.remove(canvas);
-				synchronized (ScreenshotCanvasPool.this) {
-					ScreenshotCanvasPool.this.notifyAll();
-				}
+				// called on the render thread, which can be the thread of a
+				// shared context that a creation or disposal holding the lock
+				// waits for
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						removeFailed(canvas);
+					}
+				});
 			}
 		});
-		
-		return canvas;	
+
+		return entry;
+	}
+
+	private void removeFailed(ScreenshotCanvas canvas) {
+		disposeCanvas(canvas);
+		// other canvases might be leased or returned concurrently
+		lock.lock();
+		try {
+			if (this.inUse.remove(canvas) || this.unusedEntries.containsKey(canvas)) {
+				removeUnused(canvas);
+				this.entries.remove(canvas);
+				this.failed.add(canvas);
+				grantSlots();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Creates unused canvases of the given sizes, one per element, as long as
+	 * the pool isn't full. No canvas is disposed for that.
+	 * Each creation takes a turn like a {@link Priority#BULK} request.
+	 * Returns when the canvases are created.
+	 *
+	 * @param sizes
+	 * @return how many canvases were created
+	 */
+	public int warmUp(Collection<IntDimension> sizes) {
+		int created = 0;
+		for (IntDimension size : sizes) {
+			IntDimension canvasSize;
+			int generation;
+			lock.lock();
+			try {
+				canvasSize = bucket(size);
+				awaitTurnUninterruptibly(null, Priority.BULK);
+				if (!reserveCreation(canvasSize)) {
+					// pass on our turn
+					grantSlots();
+					break;
+				}
+				this.backgroundSlots++;
+				generation = this.generation;
+			} finally {
+				lock.unlock();
+			}
+			if (createUnused(canvasSize, generation)) {
+				created++;
+			}
+		}
+		return created;
+	}
+
+	/**
+	 * Keeps the given number of unused canvases of a size ready. They are
+	 * created in the background whenever the pool has room for them, so
+	 * that requests for hot sizes don't have to wait for canvas creation.
+	 * A count of 0 stops keeping canvases of that size warm.
+	 *
+	 * @param size
+	 * @param count
+	 */
+	public void keepWarm(IntDimension size, int count) {
+		lock.lock();
+		try {
+			if (count > 0) {
+				this.keepWarm.put(bucket(size), count);
+			} else {
+				this.keepWarm.remove(bucket(size));
+			}
+			replenish();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Starts creating canvases in the background for hot sizes
+	 * which have less unused canvases than they should.
+	 * Creations only start when no request waits and take a slot of the
+	 * canvases in use, like requests do.
+	 */
+	private void replenish() {
+		for (Entry<IntDimension, Integer> hot : this.keepWarm.entrySet()) {
+			final IntDimension size = hot.getKey();
+			Deque<ScreenshotCanvas> ready = this.unused.get(size);
+			int count = (ready == null ? 0 : ready.size()) + this.pendingCreations.count(size);
+			for (; count < hot.getValue() && this.waiters.isEmpty() && canLease()
+					&& reserveCreation(size); count++) {
+				if (this.warmUpExecutor == null) {
+					this.warmUpExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+							new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+							.setDaemon(true).setNameFormat("canvas-warmup-%d").build());
+				}
+				this.backgroundSlots++;
+				final int generation = this.generation;
+				this.warmUpExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							createUnused(size, generation);
+						} catch (RuntimeException e) {
+							log.error("Could not create canvas in the background", e);
+						}
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Counts a canvas which is about to be created as unused canvas,
+	 * if the pool has room for it.
+	 */
+	private boolean reserveCreation(IntDimension size) {
+		if (this.inUse.size() + this.unusedEntries.size() + this.pendingCreations.size() >= this.maxCanvases) {
+			return false;
+		}
+		this.pendingCreations.add(size);
+		return true;
+	}
+
+	/**
+	 * Creates a reserved canvas without holding the lock and makes it unused,
+	 * then gives up the background slot taken for it.
+	 */
+	private boolean createUnused(IntDimension size, int generation) {
+		boolean reserved = true;
+		try {
+			long start = this.ticker.read();
+			ScreenshotCanvas canvas = this.factory.create(size);
+			long createNanos = this.ticker.read() - start;
+
+			boolean added;
+			lock.lock();
+			try {
+				checkCreated(canvas);
+				if (generation == this.generation) {
+					this.pendingCreations.remove(size);
+				}
+				reserved = false;
+				// requests may have created canvases beyond the reservation,
+				// and disposeAll() may have run in the meantime
+				added = generation == this.generation
+						&& this.inUse.size() + this.unusedEntries.size() < this.maxCanvases;
+				if (added) {
+					addUnused(register(canvas, createNanos));
+				}
+			} finally {
+				lock.unlock();
+			}
+			if (!added) {
+				disposeCanvas(canvas);
+			}
+			return added;
+		} finally {
+			lock.lock();
+			try {
+				if (reserved && generation == this.generation) {
+					this.pendingCreations.remove(size);
+				}
+				backgroundWorkDone();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private void backgroundWorkDone() {
+		this.backgroundSlots--;
+		if (this.backgroundSlots == 0) {
+			this.backgroundDone.signalAll();
+		}
+		grantSlots();
+	}
+
+	boolean isDisposing() {
+		lock.lock();
+		try {
+			return this.disposing;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until nothing runs in the background anymore.
+	 */
+	void awaitBackgroundWork() throws InterruptedException {
+		lock.lock();
+		try {
+			while (this.backgroundSlots > 0) {
+				this.backgroundDone.await();
+			}
+		} finally {
+			lock.unlock();
+		}
 	}
 
-	
 	/**
 	 * Returns a canvas where the condition is satisfied, or null otherwise.
-	 * 
+	 * Only the states of the type are tested, and if the condition is an
+	 * {@link IndexedCondition}, only the states having its keys.
+	 *
 	 * @param size
 	 * @param condition
 	 * @return
 	 */
-	public synchronized <T> Pair<ScreenshotCanvas, T> 
+	public <T> Pair<ScreenshotCanvas, T>
 		getCanvasIfMatch(IntDimension size, Class<T> type, Predicate<T> condition) {
 
-		int unusedCount = this.unused.size();
-		int usedCount = this.inUse.size();
+		lock.lock();
+		try {
+			// at most MaxConcurrentCanvases canvases are in use at the same time
+			awaitTurnUninterruptibly(null, Priority.INTERACTIVE);
 
-		// only one canvas can be used at the same time
-		// even if the drivers would allow more than one canvas, it wouldn't be any more
-		// efficient due to the many OpenGL context switches
-		while (usedCount > 0) {
-			try {
-				this.wait();
-			} catch (InterruptedException e) {
+			Pair<ScreenshotCanvas, T> match = findMatch(bucket(size), type, condition);
+			if (match == null) {
+				this.metrics.recordStateMiss();
+				// pass on our turn
+				grantSlots();
+			} else {
+				this.metrics.recordStateHit();
+				crop(match.getValue0(), size);
+				replenish();
 			}
-			unusedCount = this.unused.size();
-			usedCount = this.inUse.size();
+			return match;
+		} finally {
+			lock.unlock();
 		}
+	}
+
+	private <T> Pair<ScreenshotCanvas, T>
+		findMatch(IntDimension size, Class<T> type, Predicate<T> condition) {
 
 		/**
 		 * Order:
 		 * 1. Canvas with matching size and type and conditions
 		 * 2. Resizeable canvas with matching type and conditions
+		 * The most recently returned canvas wins ties.
 		 */
-		
-		List<ScreenshotCanvas> sizeMatchCanvases = new LinkedList<ScreenshotCanvas>();
-		for (ScreenshotCanvas canvas : this.unused.keySet()) {
-			if (canvas.getSize().equals(size)) {
-				sizeMatchCanvases.add(canvas);
-			}
-		}
-		
-		// 1. Canvas with matching size and type and conditions
-		for (ScreenshotCanvas canvas : sizeMatchCanvases) {
-			Object state = this.unused.get(canvas);
-			if (state != null && type.isAssignableFrom(state.getClass())) {
-				@SuppressWarnings("unchecked")
-				T typedState = (T) state;
-				if (condition.apply(typedState)) {
-					this.inUse.add(canvas);
-					this.unused.remove(canvas);
-					return new Pair<ScreenshotCanvas, T>(canvas, typedState);
-				}
-			}
-		}
-			
-		// 2. Resizable canvas with size changed and matching type and conditions
-		for (ScreenshotCanvas canvas : this.unused.keySet()) {
-			if (canvas instanceof ResizableCanvas) {
-				Object state = this.unused.get(canvas);
-				if (state != null && type.isAssignableFrom(state.getClass())) {
-					@SuppressWarnings("unchecked")
-					T typedState = (T) state;
-					if (condition.apply(typedState)) {
-						((ResizableCanvas) canvas).setSize(size);
-						this.inUse.add(canvas);
-						this.unused.remove(canvas);
-						return new Pair<ScreenshotCanvas, T>(canvas, typedState);
+
+		CanvasEntry match = null;
+		T matchState = null;
+		boolean matchSameSize = false;
+		for (ScreenshotCanvas canvas : matchCandidates(type, condition)) {
+			CanvasEntry entry = this.unusedEntries.get(canvas);
+			boolean sameSize = canvas.getSize().equals(size);
+			if (!sameSize && !(canvas instanceof ResizableCanvas)) {
+				continue;
+			}
+			// only test the condition if the canvas would win
+			if (match != null && (matchSameSize && !sameSize || matchSameSize == sameSize
+					&& entry.getReturnedAt() - match.getReturnedAt() <= 0)) {
+				continue;
+			}
+			T typedState = matchState(canvas, type, condition);
+			if (typedState != null) {
+				match = entry;
+				matchState = typedState;
+				matchSameSize = sameSize;
+			}
+		}
+		if (match == null) {
+			return null;
+		}
+
+		ScreenshotCanvas canvas = match.getCanvas();
+		lease(canvas, true);
+		if (!matchSameSize) {
+			((ResizableCanvas) canvas).setSize(size);
+		}
+		return new Pair<ScreenshotCanvas, T>(canvas, matchState);
+	}
+
+	/**
+	 * The unused canvases whose state may satisfy the condition: those having
+	 * the rarest key of an {@link IndexedCondition}, otherwise those with a
+	 * state of the type.
+	 */
+	private Collection<ScreenshotCanvas> matchCandidates(Class<?> type, Predicate<?> condition) {
+		if (condition instanceof IndexedCondition) {
+			Set<?> keys = ((IndexedCondition<?>) condition).getRequiredKeys();
+			if (!keys.isEmpty()) {
+				Set<ScreenshotCanvas> rarest = null;
+				for (Object key : keys) {
+					Set<ScreenshotCanvas> indexed = this.stateIndex.get(key);
+					if (indexed == null) {
+						return Collections.emptySet();
 					}
+					if (rarest == null || indexed.size() < rarest.size()) {
+						rarest = indexed;
+					}
+				}
+				// the condition checks the other keys
+				return rarest;
+			}
+		}
+		List<ScreenshotCanvas> candidates = new ArrayList<ScreenshotCanvas>();
+		for (Entry<Class<?>, Set<ScreenshotCanvas>> stateType : this.stateTypes.entrySet()) {
+			if (type.isAssignableFrom(stateType.getKey())) {
+				candidates.addAll(stateType.getValue());
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Returns the canvas whose indexed state fits the given keys best, or null
+	 * if no unused canvas has a state which shares any of the keys. If the
+	 * keys are empty, any indexed state of the type is a candidate.
+	 * 
+	 * Candidates are found through the index of the state keys. By default
+	 * the state having the most of the given keys wins, canvases with the
+	 * right size win ties.
+	 * 
+	 * @param scorer
+	 *            rates the candidates, null to count the matched keys
+	 */
+	public <T extends IndexedState> Pair<ScreenshotCanvas, T>
+		getCanvasBestMatch(IntDimension size, Class<T> type, Set<?> keys, StateScorer<? super T> scorer) {
+
+		lock.lock();
+		try {
+			awaitTurnUninterruptibly(null, Priority.INTERACTIVE);
+
+			Pair<ScreenshotCanvas, T> match = findBestMatch(bucket(size), type, keys, scorer);
+			if (match == null) {
+				this.metrics.recordStateMiss();
+				// pass on our turn
+				grantSlots();
+			} else {
+				this.metrics.recordStateHit();
+				crop(match.getValue0(), size);
+				replenish();
+			}
+			return match;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private <T extends IndexedState> Pair<ScreenshotCanvas, T>
+		findBestMatch(IntDimension size, Class<T> type, Set<?> keys, StateScorer<? super T> scorer) {
+
+		Map<ScreenshotCanvas, Integer> hits = new HashMap<ScreenshotCanvas, Integer>();
+		if (keys.isEmpty()) {
+			for (ScreenshotCanvas canvas : this.indexedKeys.keySet()) {
+				hits.put(canvas, 0);
+			}
+		} else {
+			for (Object key : keys) {
+				Set<ScreenshotCanvas> canvases = this.stateIndex.get(key);
+				if (canvases == null) {
+					continue;
+				}
+				for (ScreenshotCanvas canvas : canvases) {
+					Integer count = hits.get(canvas);
+					hits.put(canvas, count == null ? 1 : count + 1);
 				}
+			}
+		}
 
+		ScreenshotCanvas best = null;
+		T bestState = null;
+		double bestScore = 0;
+		for (Entry<ScreenshotCanvas, Integer> hit : hits.entrySet()) {
+			ScreenshotCanvas canvas = hit.getKey();
+			boolean sameSize = canvas.getSize().equals(size);
+			Object state = this.unusedEntries.get(canvas).getState();
+			if (!type.isInstance(state) || !(sameSize || canvas instanceof ResizableCanvas)) {
+				continue;
+			}
+			T typedState = type.cast(state);
+			double score = scorer == null ? hit.getValue() : scorer.score(typedState, hit.getValue());
+			if (score < 0) {
+				continue;
 			}
+			if (best == null || score > bestScore
+					|| (score == bestScore && sameSize && !best.getSize().equals(size))) {
+				best = canvas;
+				bestState = typedState;
+				bestScore = score;
+			}
+		}
+		if (best == null) {
+			return null;
 		}
 
-		return null;
+		lease(best, true);
+		if (!best.getSize().equals(size)) {
+			((ResizableCanvas) best).setSize(size);
+		}
+		return new Pair<ScreenshotCanvas, T>(best, bestState);
 	}
 
-	public synchronized void returnCanvas(ScreenshotCanvas canvas) {
+	private <T> T matchState(ScreenshotCanvas canvas, Class<T> type, Predicate<T> condition) {
+		Object state = this.unusedEntries.get(canvas).getState();
+		if (state != null && type.isAssignableFrom(state.getClass())) {
+			@SuppressWarnings("unchecked")
+			T typedState = (T) state;
+			if (condition.apply(typedState)) {
+				return typedState;
+			}
+		}
+		return null;
+	}
 
-		if (!this.inUse.contains(canvas)) {
-			throw new RuntimeException("Canvas wasn't in use");
+	/**
+	 * Renders many small images by packing them into atlases of the given
+	 * size, so that each atlas takes one frame and one readback on one canvas
+	 * instead of one canvas lease and readback per image. The canvases are
+	 * leased with {@link Priority#BULK} and returned in initial state.
+	 * {@link AtlasShotCollector} collects shots of independent callers.
+	 *
+	 * @param sizes
+	 *            the size of each image
+	 * @return the images in the order of the requests
+	 * @throws IllegalArgumentException
+	 *             if an image is larger than the atlas
+	 * @throws UnsupportedOperationException
+	 *             if the canvases don't implement {@link AtlasCanvas}
+	 */
+	public List<BufferedImage> takeAtlasShots(IntDimension atlasSize,
+			List<ShotRequest> requests, List<IntDimension> sizes) {
+		if (requests.size() != sizes.size()) {
+			throw new IllegalArgumentException("One size per request needed");
+		}
+		List<BufferedImage> images = new ArrayList<BufferedImage>(requests.size());
+		int start = 0;
+		while (start < requests.size()) {
+			int end = AtlasPacker.pack(sizes, start, atlasSize, null);
+			ScreenshotCanvas canvas = getCanvas(atlasSize, Priority.BULK);
+			try {
+				if (!(canvas instanceof AtlasCanvas)) {
+					throw new UnsupportedOperationException("Canvas can't render atlases");
+				}
+				images.addAll(((AtlasCanvas) canvas).takeAtlasShots(
+						requests.subList(start, end), sizes.subList(start, end)));
+			} finally {
+				returnCanvas(canvas);
+			}
+			start = end;
 		}
+		return images;
+	}
 
-		this.inUse.remove(canvas);
-		this.unused.put(canvas, null);
-		this.notifyAll();
+	public void returnCanvas(ScreenshotCanvas canvas) {
+		returnCanvas(canvas, null);
 	}
 
-	public synchronized void returnCanvas(ScreenshotCanvas canvas,
+	public void returnCanvas(ScreenshotCanvas canvas,
 			Object newState) {
 
-		if (!this.inUse.contains(canvas)) {
-			throw new RuntimeException("Canvas wasn't in use");
+		lock.lock();
+		try {
+			if (this.failed.contains(canvas)) {
+				// already disposed
+				return;
+			}
+			if (!this.inUse.contains(canvas)) {
+				throw new RuntimeException("Canvas wasn't in use");
+			}
+			release(canvas, newState);
+		} finally {
+			lock.unlock();
 		}
+	}
 
+	/**
+	 * Hands a canvas which is in use over to the next request of the same size,
+	 * unless a more urgent request of another size waits, or makes it unused.
+	 */
+	private void release(ScreenshotCanvas canvas, Object newState) {
+		CanvasEntry entry = this.entries.get(canvas);
+		long now = this.ticker.read();
+		entry.returned(newState, now);
+		Deque<Waiter> queue = this.sizeWaiters.get(canvas.getSize());
+		Waiter waiter = queue == null ? null : next(queue, now);
+		if (waiter != null && (waiter.isUrgent(now) || !next(this.waiters, now).isUrgent(now))) {
+			dequeue(waiter);
+			entry.leased(false, now);
+			clearSceneGraph(canvas);
+			waiter.canvas = canvas;
+			waiter.wake();
+			return;
+		}
 		this.inUse.remove(canvas);
-		this.unused.put(canvas, newState);
-		this.notifyAll();
+		addUnused(entry);
+		grantSlots();
+	}
+
+	/**
+	 * Moves an unused canvas to the canvases in use.
+	 */
+	private void lease(ScreenshotCanvas canvas, boolean keepState) {
+		removeUnused(canvas);
+		this.inUse.add(canvas);
+		this.entries.get(canvas).leased(keepState, this.ticker.read());
+	}
+
+	private void disposeCanvas(ScreenshotCanvas canvas) {
+		long start = this.ticker.read();
+		canvas.dispose();
+		this.metrics.recordDispose(this.ticker.read() - start);
+	}
+
+	private ScreenshotCanvas selectVictim(Collection<ScreenshotCanvas> canvases) {
+		List<CanvasEntry> candidates = new ArrayList<CanvasEntry>(canvases.size());
+		for (ScreenshotCanvas canvas : canvases) {
+			candidates.add(this.unusedEntries.get(canvas));
+		}
+		return this.evictionPolicy.selectVictim(candidates).getCanvas();
+	}
+
+	private void addUnused(CanvasEntry entry) {
+		ScreenshotCanvas canvas = entry.getCanvas();
+		Deque<ScreenshotCanvas> canvases = this.unused.get(canvas.getSize());
+		if (canvases == null) {
+			canvases = new ArrayDeque<ScreenshotCanvas>();
+			this.unused.put(canvas.getSize(), canvases);
+		}
+		canvases.addFirst(canvas);
+		this.unusedEntries.put(canvas, entry);
+		scheduleReaper();
+
+		if (entry.getState() != null) {
+			Set<ScreenshotCanvas> typed = this.stateTypes.get(entry.getState().getClass());
+			if (typed == null) {
+				typed = new HashSet<ScreenshotCanvas>();
+				this.stateTypes.put(entry.getState().getClass(), typed);
+			}
+			typed.add(canvas);
+		}
+
+		if (entry.getState() instanceof IndexedState) {
+			Set<Object> keys = new HashSet<Object>(((IndexedState) entry.getState()).getIndexKeys());
+			this.indexedKeys.put(canvas, keys);
+			for (Object key : keys) {
+				Set<ScreenshotCanvas> indexed = this.stateIndex.get(key);
+				if (indexed == null) {
+					indexed = new HashSet<ScreenshotCanvas>();
+					this.stateIndex.put(key, indexed);
+				}
+				indexed.add(canvas);
+			}
+		}
+	}
+
+	private void removeUnused(ScreenshotCanvas canvas) {
+		CanvasEntry entry = this.unusedEntries.remove(canvas);
+		if (entry == null) {
+			return;
+		}
+		if (entry.getState() != null) {
+			Set<ScreenshotCanvas> typed = this.stateTypes.get(entry.getState().getClass());
+			typed.remove(canvas);
+			if (typed.isEmpty()) {
+				this.stateTypes.remove(entry.getState().getClass());
+			}
+		}
+		Deque<ScreenshotCanvas> canvases = this.unused.get(canvas.getSize());
+		canvases.remove(canvas);
+		if (canvases.isEmpty()) {
+			this.unused.remove(canvas.getSize());
+		}
+
+		Set<Object> keys = this.indexedKeys.remove(canvas);
+		if (keys != null) {
+			for (Object key : keys) {
+				Set<ScreenshotCanvas> indexed = this.stateIndex.get(key);
+				indexed.remove(canvas);
+				if (indexed.isEmpty()) {
+					this.stateIndex.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * How many requests are waiting for a canvas.
+	 */
+	int getWaiterCount() {
+		lock.lock();
+		try {
+			return this.waiters.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * How many canvases are unused.
+	 */
+	int getUnusedCount() {
+		lock.lock();
+		try {
+			return this.unusedEntries.size();
+		} finally {
+			lock.unlock();
+		}
 	}
-	
+
 	private static void clearSceneGraph(ScreenshotCanvas canvas) {
 		canvas.queueSceneUpdate(new SceneGraphUpdate() {
 			@Override
@@ -236,15 +1627,63 @@ public class ScreenshotCanvasPool {
 		});
 	}
 
-	public synchronized void disposeAll() {
+	/**
+	 * Disposes all unused canvases, stops keeping canvases warm and stops
+	 * the idle reaper until canvases are unused again.
+	 * Background creations which haven't started are dropped, the ones
+	 * which have started are waited for and their canvases disposed.
+	 * Requests arriving in the meantime wait until it returns.
+	 */
+	public void disposeAll() {
 
-		if (this.inUse.size() > 0) {
-			throw new RuntimeException("At least one canvas still in use");
+		lock.lock();
+		try {
+			if (this.inUse.size() > 0) {
+				throw new RuntimeException("At least one canvas still in use");
+			}
+			this.disposing = true;
+			try {
+				this.keepWarm.clear();
+				this.generation++;
+				this.pendingCreations.clear();
+				if (this.warmUpExecutor != null) {
+					List<Runnable> dropped = new ArrayList<Runnable>();
+					this.warmUpExecutor.getQueue().drainTo(dropped);
+					this.backgroundSlots -= dropped.size();
+					this.warmUpExecutor.shutdown();
+					this.warmUpExecutor = null;
+				}
+				if (this.reaper != null) {
+					// a running reaper holds a slot and is waited for below
+					this.reaperTask.cancel(false);
+					this.reaperTask = null;
+					this.reaper.shutdown();
+					this.reaper = null;
+				}
+				while (this.backgroundSlots > 0) {
+					this.backgroundDone.awaitUninterruptibly();
+				}
+				// requests which had their turn before may have woken up
+				// while waiting
+				if (this.inUse.size() > 0) {
+					throw new RuntimeException("At least one canvas still in use");
+				}
+				for (ScreenshotCanvas c : this.unusedEntries.keySet()) {
+					disposeCanvas(c);
+				}
+				this.unused.clear();
+				this.unusedEntries.clear();
+				this.stateIndex.clear();
+				this.indexedKeys.clear();
+				this.stateTypes.clear();
+				this.entries.clear();
+			} finally {
+				this.disposing = false;
+				grantSlots();
+			}
+		} finally {
+			lock.unlock();
 		}
-		for (ScreenshotCanvas c : this.unused.keySet()) {
-			c.dispose();
-		}		
-		this.unused.clear();
 	}
 
 }
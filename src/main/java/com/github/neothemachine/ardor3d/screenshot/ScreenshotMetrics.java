@@ -0,0 +1,210 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.inject.Singleton;
+
+/**
+ * Counters and latencies of a {@link ScreenshotCanvasPool} and its canvases.
+ * 
+ * With Guice there is one instance which the pool and the canvases share.
+ * Call {@link #register(String)} to publish it over JMX.
+ */
+@Singleton
+public class ScreenshotMetrics implements ScreenshotMetricsMXBean {
+
+	private volatile LatencyHistogram waitTime;
+	private volatile LatencyHistogram createTime;
+	private volatile LatencyHistogram disposeTime;
+	private volatile LatencyHistogram readbackTime;
+	private volatile LatencyHistogram exportTime;
+
+	private final AtomicLong exactSizeHits = new AtomicLong();
+	private final AtomicLong resizeHits = new AtomicLong();
+	private final AtomicLong stateHits = new AtomicLong();
+	private final AtomicLong stateMisses = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong idleDisposals = new AtomicLong();
+	private final AtomicLong canvasesCreated = new AtomicLong();
+	private final AtomicLong shots = new AtomicLong();
+
+	// a gauge, not reset
+	private final AtomicLong gpuBytes = new AtomicLong();
+
+	private ObjectName name;
+
+	public ScreenshotMetrics() {
+		reset();
+	}
+
+	/**
+	 * Registers the metrics at the platform MBean server as
+	 * com.github.neothemachine.ardor3d.screenshot:type=ScreenshotMetrics,name=[name].
+	 */
+	public synchronized void register(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName(getClass().getPackage().getName()
+				+ ":type=ScreenshotMetrics,name=" + ObjectName.quote(name));
+		server.registerMBean(this, objectName);
+		this.name = objectName;
+	}
+
+	public synchronized void unregister() throws JMException {
+		if (this.name != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.name);
+			this.name = null;
+		}
+	}
+
+	void recordWait(long nanos) {
+		waitTime.record(nanos);
+	}
+
+	void recordExactSizeHit() {
+		exactSizeHits.incrementAndGet();
+	}
+
+	void recordResizeHit() {
+		resizeHits.incrementAndGet();
+	}
+
+	void recordStateHit() {
+		stateHits.incrementAndGet();
+	}
+
+	void recordStateMiss() {
+		stateMisses.incrementAndGet();
+	}
+
+	void recordMiss() {
+		misses.incrementAndGet();
+	}
+
+	void recordEviction() {
+		evictions.incrementAndGet();
+	}
+
+	void recordIdleDisposal() {
+		idleDisposals.incrementAndGet();
+	}
+
+	void recordCreate(long nanos) {
+		canvasesCreated.incrementAndGet();
+		createTime.record(nanos);
+	}
+
+	void recordDispose(long nanos) {
+		disposeTime.record(nanos);
+	}
+
+	void recordShot(long readbackNanos, long exportNanos) {
+		shots.incrementAndGet();
+		readbackTime.record(readbackNanos);
+		exportTime.record(exportNanos);
+	}
+
+	void recordGpuBytes(long delta) {
+		gpuBytes.addAndGet(delta);
+	}
+
+	@Override
+	public LatencyHistogram getWaitTime() {
+		return waitTime;
+	}
+
+	@Override
+	public long getExactSizeHits() {
+		return exactSizeHits.get();
+	}
+
+	@Override
+	public long getResizeHits() {
+		return resizeHits.get();
+	}
+
+	@Override
+	public long getStateHits() {
+		return stateHits.get();
+	}
+
+	@Override
+	public long getStateMisses() {
+		return stateMisses.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public long getIdleDisposals() {
+		return idleDisposals.get();
+	}
+
+	@Override
+	public LatencyHistogram getCreateTime() {
+		return createTime;
+	}
+
+	@Override
+	public LatencyHistogram getDisposeTime() {
+		return disposeTime;
+	}
+
+	@Override
+	public long getCanvasesCreated() {
+		return canvasesCreated.get();
+	}
+
+	@Override
+	public long getShots() {
+		return shots.get();
+	}
+
+	@Override
+	public double getShotsPerCanvas() {
+		long created = canvasesCreated.get();
+		return created == 0 ? 0 : shots.get() / (double) created;
+	}
+
+	@Override
+	public LatencyHistogram getReadbackTime() {
+		return readbackTime;
+	}
+
+	@Override
+	public LatencyHistogram getExportTime() {
+		return exportTime;
+	}
+
+	@Override
+	public long getGpuBytes() {
+		return gpuBytes.get();
+	}
+
+	@Override
+	public void reset() {
+		waitTime = new LatencyHistogram();
+		createTime = new LatencyHistogram();
+		disposeTime = new LatencyHistogram();
+		readbackTime = new LatencyHistogram();
+		exportTime = new LatencyHistogram();
+		for (AtomicLong counter : new AtomicLong[] { exactSizeHits, resizeHits, stateHits, stateMisses,
+				misses, evictions, idleDisposals, canvasesCreated, shots }) {
+			counter.set(0);
+		}
+	}
+
+}
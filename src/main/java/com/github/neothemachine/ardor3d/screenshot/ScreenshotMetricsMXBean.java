@@ -0,0 +1,76 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+/**
+ * JMX view of {@link ScreenshotMetrics}.
+ */
+public interface ScreenshotMetricsMXBean {
+
+	/**
+	 * How long getCanvas() and the like waited for the turn of the request.
+	 */
+	LatencyHistogram getWaitTime();
+
+	/**
+	 * Requests served with an unused canvas of the right size.
+	 */
+	long getExactSizeHits();
+
+	/**
+	 * Requests served by resizing an unused canvas.
+	 */
+	long getResizeHits();
+
+	/**
+	 * Requests served with a canvas whose state matched.
+	 */
+	long getStateHits();
+
+	/**
+	 * Requests for a matching state which got no canvas.
+	 */
+	long getStateMisses();
+
+	/**
+	 * Requests which needed a new canvas.
+	 */
+	long getMisses();
+
+	/**
+	 * Unused canvases disposed to make room for another size.
+	 */
+	long getEvictions();
+
+	/**
+	 * Unused canvases disposed by the idle timeout.
+	 */
+	long getIdleDisposals();
+
+	LatencyHistogram getCreateTime();
+
+	LatencyHistogram getDisposeTime();
+
+	long getCanvasesCreated();
+
+	long getShots();
+
+	double getShotsPerCanvas();
+
+	/**
+	 * Time to read the pixels back from the graphics card, without export.
+	 */
+	LatencyHistogram getReadbackTime();
+
+	/**
+	 * Time to convert the pixels into an image.
+	 */
+	LatencyHistogram getExportTime();
+
+	/**
+	 * Estimated GPU memory which the canvases hold right now, see
+	 * {@link GpuResourceTracker}. Not affected by {@link #reset()}.
+	 */
+	long getGpuBytes();
+
+	void reset();
+
+}
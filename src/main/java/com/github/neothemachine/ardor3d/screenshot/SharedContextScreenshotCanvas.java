@@ -0,0 +1,24 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import javax.inject.Inject;
+
+import com.google.inject.assistedinject.Assisted;
+
+/**
+ * Headless canvas which is only a set of framebuffer objects in a
+ * {@link SharedHeadlessContext}. Compared to {@link LwjglHeadlessScreenshotCanvas}
+ * it doesn't have an own context and render thread, so a new canvas only costs
+ * its renderbuffers, and textures and buffers are uploaded once for all canvases.
+ * 
+ * The shots of all canvases are rendered one after another on the thread of the
+ * shared context. With Guice, all canvases use the same context.
+ */
+public class SharedContextScreenshotCanvas extends LwjglHeadlessScreenshotCanvas {
+
+	@Inject
+	public SharedContextScreenshotCanvas(@Assisted IntDimension size, @Samples int aaSamples,
+			SharedHeadlessContext sharedContext) {
+		super(size, aaSamples, sharedContext);
+	}
+
+}
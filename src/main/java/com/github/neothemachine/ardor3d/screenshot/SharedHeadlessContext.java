@@ -0,0 +1,178 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import org.lwjgl.LWJGLException;
+import org.lwjgl.opengl.GLContext;
+import org.lwjgl.opengl.Pbuffer;
+import org.lwjgl.opengl.PixelFormat;
+
+import com.ardor3d.renderer.ContextManager;
+import com.ardor3d.renderer.RenderContext;
+import com.ardor3d.renderer.lwjgl.LwjglContextCapabilities;
+import com.ardor3d.util.Ardor3dException;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.Singleton;
+
+/**
+ * One OpenGL context with its own render thread which hosts the framebuffer
+ * objects of many {@link LwjglHeadlessCanvas}es.
+ *
+ * All canvases share one Ardor3D render context, so textures and buffers are
+ * uploaded once for all of them, and switching between canvases only binds
+ * another framebuffer instead of making another context current.
+ *
+ * All OpenGL calls have to run on the thread of the context, see
+ * {@link #submit(Callable)}.
+ *
+ * The context lives until {@link #dispose()} is called by whoever created it,
+ * e.g. after disposing the canvases of the pool with
+ * {@link ScreenshotCanvasPool#disposeAll()}.
+ *
+ * @see SharedContextScreenshotCanvas
+ */
+@Singleton
+public class SharedHeadlessContext implements GpuResourceOwner {
+
+	private final ListeningExecutorService renderThread = MoreExecutors.listeningDecorator(
+			Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+					.setDaemon(true).setNameFormat("shared-headless-%d").build()));
+
+	// the thread of the context, set by the first task
+	private volatile Thread thread;
+
+	// only holds the Pbuffer, the framebuffers are tracked by the canvases
+	private final GpuResourceTracker gpuResources = new GpuResourceTracker();
+
+	private Pbuffer buff;
+	private LwjglContextCapabilities caps;
+	private RenderContext renderContext;
+
+	private volatile boolean isDisposed = false;
+
+	public SharedHeadlessContext() {
+		call(new Callable<Void>() {
+			@Override
+			public Void call() throws LWJGLException {
+				thread = Thread.currentThread();
+				// the context is only needed for the framebuffers, its own surface is never drawn to
+				buff = new Pbuffer(1, 1, new PixelFormat(8, 8, 0), null);
+				gpuResources.allocated(GpuResourceTracker.Kind.PBUFFER, 0, 0);
+				buff.makeCurrent();
+
+				caps = new LwjglContextCapabilities(GLContext.getCapabilities());
+				if (!caps.isFBOSupported()) {
+					buff.destroy();
+					gpuResources.freed(GpuResourceTracker.Kind.PBUFFER, 0);
+					throw new Ardor3dException("Headless requires FBO support.");
+				}
+				renderContext = new RenderContext(SharedHeadlessContext.this, caps, null);
+				ContextManager.addContext(SharedHeadlessContext.this, renderContext);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Runs the task on the thread of the context. Tasks run one after another
+	 * in the order they were submitted.
+	 */
+	public <T> ListenableFuture<T> submit(Callable<T> task) {
+		if (isDisposed) {
+			throw new IllegalStateException("Context is disposed");
+		}
+		return renderThread.submit(task);
+	}
+
+	/**
+	 * Whether the caller runs on the thread of the context.
+	 */
+	public boolean isContextThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Runs the task on the thread of the context and waits for it. On the
+	 * thread of the context, the task runs right away, as it would otherwise
+	 * wait for itself.
+	 *
+	 * @throws Ardor3DRenderException if the task failed with a checked exception
+	 */
+	public <T> T call(Callable<T> task) {
+		if (isContextThread()) {
+			if (isDisposed) {
+				throw new IllegalStateException("Context is disposed");
+			}
+			try {
+				return task.call();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new Ardor3DRenderException(e);
+			}
+		}
+		try {
+			return Uninterruptibles.getUninterruptibly(submit(task));
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new Ardor3DRenderException(e.getCause());
+		}
+	}
+
+	/**
+	 * Sets where the context records its GPU memory, null for nowhere.
+	 */
+	@com.google.inject.Inject(optional = true)
+	public void setMetrics(ScreenshotMetrics metrics) {
+		this.gpuResources.setMetrics(metrics);
+	}
+
+	@Override
+	public GpuResourceTracker getGpuResources() {
+		return gpuResources;
+	}
+
+	public LwjglContextCapabilities getCapabilities() {
+		return caps;
+	}
+
+	/**
+	 * The render context which all canvases of this context use.
+	 */
+	public RenderContext getRenderContext() {
+		return renderContext;
+	}
+
+	/**
+	 * Destroys the context and stops its thread. The canvases using it must
+	 * have been disposed before. Does nothing if already disposed.
+	 */
+	public synchronized void dispose() {
+		if (isDisposed) {
+			return;
+		}
+		call(new Callable<Void>() {
+			@Override
+			public Void call() {
+				ContextManager.removeContext(SharedHeadlessContext.this);
+				buff.destroy();
+				gpuResources.freed(GpuResourceTracker.Kind.PBUFFER, 0);
+				return null;
+			}
+		});
+		isDisposed = true;
+		renderThread.shutdown();
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Waiting for screenshot futures with the exceptions of takeShot().
+ */
+final class ShotFutures {
+
+	private ShotFutures() {
+	}
+
+	/**
+	 * Waits for the shot, ignoring interruption.
+	 *
+	 * @throws Ardor3DRenderException on unexpected errors
+	 */
+	static <T> T get(Future<T> future) {
+		try {
+			return Uninterruptibles.getUninterruptibly(future);
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+	}
+
+	/**
+	 * Waits for the shot at most the given time. If the time runs out or the
+	 * thread is interrupted, the shot is cancelled so that it doesn't occupy
+	 * the render thread any longer.
+	 *
+	 * @throws Ardor3DRenderException on unexpected errors
+	 */
+	static <T> T get(Future<T> future, long timeout, TimeUnit unit)
+			throws InterruptedException, TimeoutException {
+		try {
+			return future.get(timeout, unit);
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		} catch (TimeoutException e) {
+			future.cancel(false);
+			throw e;
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			throw e;
+		}
+	}
+
+	private static RuntimeException unwrap(ExecutionException e) {
+		if (e.getCause() instanceof RuntimeException) {
+			return (RuntimeException) e.getCause();
+		}
+		return new Ardor3DRenderException(e.getCause());
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.github.neothemachine.ardor3d.screenshot.UpdateableCanvas.CanvasUpdate;
+import com.github.neothemachine.ardor3d.screenshot.UpdateableCanvas.SceneGraphUpdate;
+
+/**
+ * A screenshot to be taken by {@link AsyncCanvas#takeShotAsync(ShotRequest)}
+ * together with the updates that have to run right before it.
+ *
+ * The updates are queued on the canvas when the request is processed, that is
+ * after all shots submitted earlier have been rendered.
+ */
+public class ShotRequest {
+
+	private final List<SceneGraphUpdate> sceneUpdates = new LinkedList<SceneGraphUpdate>();
+	private final List<CanvasUpdate> canvasUpdates = new LinkedList<CanvasUpdate>();
+
+	public ShotRequest addSceneUpdate(SceneGraphUpdate update) {
+		this.sceneUpdates.add(update);
+		return this;
+	}
+
+	public ShotRequest addCanvasUpdate(CanvasUpdate update) {
+		this.canvasUpdates.add(update);
+		return this;
+	}
+
+	public List<SceneGraphUpdate> getSceneUpdates() {
+		return Collections.unmodifiableList(sceneUpdates);
+	}
+
+	public List<CanvasUpdate> getCanvasUpdates() {
+		return Collections.unmodifiableList(canvasUpdates);
+	}
+
+	/**
+	 * Queues the updates of this request on the given canvas.
+	 */
+	void queueOn(UpdateableCanvas canvas) {
+		for (SceneGraphUpdate update : sceneUpdates) {
+			canvas.queueSceneUpdate(update);
+		}
+		for (CanvasUpdate update : canvasUpdates) {
+			canvas.queueCanvasUpdate(update);
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+/**
+ * A canvas which can take a screenshot after rendering a single frame.
+ */
+public interface SingleFrameCanvas {
+
+	/**
+	 * By default, a screenshot is taken after rendering two frames.
+	 * In single-frame mode, all pending queue actions run and the screenshot
+	 * is exported in the same frame. A second frame is only rendered if
+	 * queue actions queued further actions while running.
+	 *
+	 * @param singleFrame
+	 */
+	void setSingleFrameShots(boolean singleFrame);
+
+}
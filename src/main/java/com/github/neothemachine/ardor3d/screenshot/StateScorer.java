@@ -0,0 +1,18 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+/**
+ * Rates how well the state of an unused canvas fits a request in
+ * {@link ScreenshotCanvasPool#getCanvasBestMatch}.
+ */
+public interface StateScorer<T> {
+
+	/**
+	 * @param state
+	 *            the state of an unused canvas
+	 * @param matchedKeys
+	 *            how many of the requested keys the state has
+	 * @return the score, higher is better, negative if the state can't be used
+	 */
+	double score(T state, int matchedKeys);
+
+}
@@ -0,0 +1,23 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.io.IOException;
+
+/**
+ * A canvas which can render images larger than itself, tile by tile.
+ */
+public interface TiledCanvas {
+
+	/**
+	 * Renders an image of the given size, which may be larger than the canvas
+	 * and the maximum renderbuffer size, and streams its rows into the sink.
+	 * The full image is never held in memory. The field of view is the one of
+	 * the canvas, widened or narrowed to the aspect ratio of the image.
+	 * Queued updates are applied before, like for a normal shot.
+	 * A sink which fails, also with a RuntimeException, only fails this shot.
+	 *
+	 * @throws IOException
+	 *             if the sink failed
+	 */
+	void takeTiledShot(IntDimension size, RowSink sink) throws IOException;
+
+}
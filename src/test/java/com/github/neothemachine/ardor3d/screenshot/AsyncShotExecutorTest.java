@@ -0,0 +1,66 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import static org.testng.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.testng.annotations.Test;
+
+public class AsyncShotExecutorTest {
+
+	/**
+	 * Waits in the middle of its shot until released, then stops if the
+	 * shot was cancelled.
+	 */
+	private static class SteppedCanvas extends FakeScreenshotCanvas implements AsyncShotExecutor.CancellableCanvas {
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile boolean stopped = false;
+
+		SteppedCanvas() {
+			super(new IntDimension(4, 4));
+		}
+
+		@Override
+		public BufferedImage takeShot(Future<?> shot) {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			if (shot.isCancelled()) {
+				stopped = true;
+				throw new CancellationException();
+			}
+			return takeShot();
+		}
+	}
+
+	@Test(timeOut = 10000)
+	public void testTimeoutStopsStartedShot() throws Exception {
+		SteppedCanvas canvas = new SteppedCanvas();
+		AsyncShotExecutor executor = new AsyncShotExecutor(canvas);
+		Future<BufferedImage> shot = executor.submit(new ShotRequest());
+		canvas.started.await();
+		try {
+			ShotFutures.get(shot, 10, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (TimeoutException e) {
+		}
+		Future<BufferedImage> next = executor.submit(new ShotRequest());
+		canvas.release.countDown();
+
+		// runs after the first shot on the same thread
+		assertNotNull(ShotFutures.get(next));
+		assertTrue(canvas.stopped);
+		executor.shutdown();
+	}
+
+}
@@ -0,0 +1,90 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import static org.testng.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.ardor3d.scenegraph.Node;
+import com.github.neothemachine.ardor3d.screenshot.UpdateableCanvas.SceneGraphUpdate;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class AtlasShotCollectorTest {
+
+	@Test(timeOut = 10000)
+	public void testFullAtlas() throws Exception {
+		FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(factory, 2);
+		// long enough for only full atlases to be rendered during the test
+		AtlasShotCollector collector = new AtlasShotCollector(pool, new IntDimension(8, 8),
+				TimeUnit.MINUTES.toMillis(10));
+
+		List<ListenableFuture<BufferedImage>> futures = new ArrayList<ListenableFuture<BufferedImage>>();
+		for (int i = 0; i < 5; i++) {
+			futures.add(collector.submit(new ShotRequest(), new IntDimension(4, 4)));
+		}
+		// the fifth image didn't fit
+		assertEquals(futures.get(0).get().getWidth(), 4);
+		assertEquals(futures.get(3).get().getWidth(), 4);
+		assertFalse(futures.get(4).isDone());
+
+		collector.shutdown();
+		assertEquals(futures.get(4).get().getWidth(), 4);
+		assertEquals(factory.created.size(), 1);
+		assertEquals(factory.created.get(0).atlasShots, Arrays.asList(4, 1));
+	}
+
+	@Test(timeOut = 10000)
+	public void testLinger() throws Exception {
+		FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(factory, 2);
+		AtlasShotCollector collector = new AtlasShotCollector(pool, new IntDimension(8, 8), 10);
+
+		ListenableFuture<BufferedImage> first = collector.submit(new ShotRequest(), new IntDimension(4, 4));
+		ListenableFuture<BufferedImage> second = collector.submit(new ShotRequest(), new IntDimension(2, 2));
+		// rendered without a full atlas or a flush
+		assertEquals(first.get().getWidth(), 4);
+		assertEquals(second.get().getWidth(), 2);
+		collector.shutdown();
+	}
+
+	@Test(timeOut = 10000)
+	public void testFailingRequest() throws Exception {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 2);
+		AtlasShotCollector collector = new AtlasShotCollector(pool, new IntDimension(8, 8),
+				TimeUnit.MINUTES.toMillis(10));
+
+		ListenableFuture<BufferedImage> other = collector.submit(new ShotRequest(), new IntDimension(4, 4));
+		ListenableFuture<BufferedImage> failing = collector.submit(new ShotRequest()
+				.addSceneUpdate(new SceneGraphUpdate() {
+					@Override
+					public void update(Node root) {
+						throw new IllegalStateException("broken update");
+					}
+				}), new IntDimension(4, 4));
+		collector.shutdown();
+		for (ListenableFuture<BufferedImage> future : Arrays.asList(other, failing)) {
+			try {
+				future.get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+		}
+		// the canvas was returned
+		assertEquals(pool.getUnusedCount(), 1);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testTooLarge() {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 2);
+		new AtlasShotCollector(pool, new IntDimension(8, 8), 10).submit(new ShotRequest(), new IntDimension(9, 1));
+	}
+
+}
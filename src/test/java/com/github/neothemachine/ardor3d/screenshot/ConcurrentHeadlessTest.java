@@ -0,0 +1,215 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import static org.testng.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.inject.Inject;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Guice;
+import org.testng.annotations.Test;
+
+import com.ardor3d.framework.Canvas;
+import com.ardor3d.renderer.Renderer;
+import com.ardor3d.renderer.pass.Pass;
+import com.ardor3d.scenegraph.Node;
+import com.github.neothemachine.ardor3d.screenshot.UpdateableCanvas.CanvasUpdate;
+import com.github.neothemachine.ardor3d.screenshot.UpdateableCanvas.SceneGraphUpdate;
+
+/**
+ * Headless canvases with their own render threads, two of them in use at the
+ * same time by the pool.
+ *
+ * run with -Djava.library.path=target/natives
+ */
+@Guice(modules = {LwjglModule.class})
+public class ConcurrentHeadlessTest {
+
+	private final ScreenshotCanvasPool pool;
+
+	@Inject
+	public ConcurrentHeadlessTest(ScreenshotCanvasPool pool) {
+		this.pool = pool;
+	}
+
+	@AfterMethod
+	public void dispose() {
+		this.pool.disposeAll();
+	}
+
+	@Test(timeOut = 60000)
+	public void testConcurrentShots() throws Throwable {
+		final IntDimension[] sizes = { new IntDimension(200, 150), new IntDimension(120, 160) };
+		final BufferedImage[] expected = new BufferedImage[sizes.length];
+		for (int i = 0; i < sizes.length; i++) {
+			expected[i] = renderModel(sizes[i]);
+		}
+
+		final int shots = 5;
+		final CountDownLatch l = new CountDownLatch(sizes.length);
+		List<AsynchTester> testers = new LinkedList<AsynchTester>();
+		for (int i = 0; i < sizes.length; i++) {
+			final int x = i;
+			AsynchTester tester = new AsynchTester(new Runnable() {
+				@Override
+				public void run() {
+					for (int shot = 0; shot < shots; shot++) {
+						// a frame drawn while the other canvas switched the
+						// context or camera would differ
+						assertSameImage(renderModel(sizes[x]), expected[x]);
+					}
+				}
+			}, l);
+			testers.add(tester);
+			tester.start();
+		}
+		l.await();
+		AsynchTester.rethrow(testers);
+	}
+
+	@Test(timeOut = 10000)
+	public void testFailedCanvasFreesResources() {
+		LwjglHeadlessScreenshotCanvas canvas = new LwjglHeadlessScreenshotCanvas(new IntDimension(40, 30), 0);
+		canvas.getPassManager().add(new Pass() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void doRender(Renderer r) {
+				throw new IllegalStateException("broken pass");
+			}
+		});
+		try {
+			canvas.takeShot();
+			fail();
+		} catch (Ardor3DRenderException e) {
+		}
+		// the shot fails after the render thread cleaned up
+		assertEquals(canvas.getGpuResources().getLiveObjects(), 0);
+		assertEquals(canvas.getGpuResources().getLiveBytes(), 0);
+	}
+
+	@Test(timeOut = 10000)
+	public void testResizeDropsCrop() {
+		LwjglHeadlessScreenshotCanvas canvas = new LwjglHeadlessScreenshotCanvas(new IntDimension(40, 30), 0);
+		try {
+			// the queued crop doesn't fit the smaller canvas
+			canvas.setCropSize(new IntDimension(30, 20));
+			canvas.setSize(new IntDimension(20, 15));
+			BufferedImage image = canvas.takeShot();
+			assertEquals(image.getWidth(), 20);
+			assertEquals(image.getHeight(), 15);
+
+			// the same size renders the full canvas again
+			canvas.setCropSize(new IntDimension(10, 10));
+			canvas.setSize(new IntDimension(20, 15));
+			image = canvas.takeShot();
+			assertEquals(image.getWidth(), 20);
+			assertEquals(image.getHeight(), 15);
+		} finally {
+			canvas.dispose();
+		}
+	}
+
+	@Test(timeOut = 10000)
+	public void testResizeTooLarge() {
+		LwjglHeadlessScreenshotCanvas canvas = new LwjglHeadlessScreenshotCanvas(new IntDimension(40, 30), 0);
+		canvas.setSize(new IntDimension(1 << 20, 30));
+		try {
+			canvas.takeShot();
+			fail();
+		} catch (Ardor3DRenderException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+			assertTrue(e.getCause().getMessage().contains("maximum renderbuffer size"));
+		}
+	}
+
+	@Test(timeOut = 10000)
+	public void testFailingSink() throws IOException {
+		LwjglHeadlessScreenshotCanvas canvas = new LwjglHeadlessScreenshotCanvas(new IntDimension(40, 30), 0);
+		try {
+			try {
+				canvas.takeTiledShot(new IntDimension(100, 70), new RowSink() {
+					@Override
+					public void begin(int width, int height) {
+					}
+
+					@Override
+					public void writeRows(int y, int rows, IntBuffer argb) {
+						throw new IllegalStateException("broken sink");
+					}
+
+					@Override
+					public void end() {
+					}
+				});
+				fail();
+			} catch (IllegalStateException e) {
+				assertEquals(e.getMessage(), "broken sink");
+			}
+
+			// the canvas survived
+			final int[] rowCount = new int[1];
+			canvas.takeTiledShot(new IntDimension(100, 70), new RowSink() {
+				@Override
+				public void begin(int width, int height) {
+				}
+
+				@Override
+				public void writeRows(int y, int rows, IntBuffer argb) {
+					rowCount[0] += rows;
+				}
+
+				@Override
+				public void end() {
+				}
+			});
+			assertEquals(rowCount[0], 70);
+			assertEquals(canvas.takeShot().getWidth(), 40);
+		} finally {
+			canvas.dispose();
+		}
+	}
+
+	private BufferedImage renderModel(IntDimension size) {
+		final File model = FileUtils.toFile(getClass().getClassLoader().getResource("table/table.dae"));
+		final ModelScene scene = new ModelScene();
+		ScreenshotCanvas canvas = pool.getCanvas(size);
+		try {
+			canvas.queueCanvasUpdate(new CanvasUpdate() {
+				@Override
+				public void update(Canvas canvas) {
+					scene.initCanvas(canvas);
+				}
+			});
+			canvas.queueSceneUpdate(new SceneGraphUpdate() {
+				@Override
+				public void update(Node root) {
+					scene.initScene(root);
+					scene.loadMesh(model, root);
+				}
+			});
+			return canvas.takeShot();
+		} finally {
+			pool.returnCanvas(canvas);
+		}
+	}
+
+	private static void assertSameImage(BufferedImage actual, BufferedImage expected) {
+		assertEquals(actual.getWidth(), expected.getWidth());
+		assertEquals(actual.getHeight(), expected.getHeight());
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				assertEquals(actual.getRGB(x, y), expected.getRGB(x, y), "pixel " + x + "," + y);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import java.awt.image.BufferedImage;
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ardor3d.renderer.pass.BasicPassManager;
+import com.ardor3d.scenegraph.Node;
+import com.github.neothemachine.ardor3d.screenshot.ScreenshotCanvasPool.ScreenshotCanvasFactory;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Canvas without any OpenGL for testing the pool.
+ * Scene updates run immediately on an own root node.
+ */
+public class FakeScreenshotCanvas implements ScreenshotCanvas, AsyncCanvas, PooledImageCanvas, SingleFrameCanvas,
+		CroppableCanvas, AtlasCanvas, GpuResourceOwner {
+
+	/**
+	 * Creates fake canvases and remembers them.
+	 */
+	public static class Factory implements ScreenshotCanvasFactory {
+
+		private final boolean resizable;
+
+		public final List<FakeScreenshotCanvas> created = new ArrayList<FakeScreenshotCanvas>();
+
+		public Factory(boolean resizable) {
+			this.resizable = resizable;
+		}
+
+		@Override
+		public synchronized ScreenshotCanvas create(IntDimension size) {
+			FakeScreenshotCanvas canvas = resizable ? new Resizable(size) : new FakeScreenshotCanvas(size);
+			created.add(canvas);
+			return canvas;
+		}
+	}
+
+	public static class Resizable extends FakeScreenshotCanvas implements ResizableCanvas {
+
+		public Resizable(IntDimension size) {
+			super(size);
+		}
+
+		@Override
+		public void setSize(IntDimension size) {
+			this.size = size;
+			getGpuResources().allocated(GpuResourceTracker.Kind.RENDERBUFFER, 1, 4L * size.getWidth() * size.getHeight());
+		}
+	}
+
+	protected IntDimension size;
+
+	public volatile IntDimension cropSize = null;
+
+	public final Node root = new Node();
+
+	public volatile boolean disposed = false;
+
+	// how many images each atlas shot had
+	public final List<Integer> atlasShots = new ArrayList<Integer>();
+
+	private final List<UncaughtExceptionHandler> uncaughtExceptionHandlers =
+			new LinkedList<UncaughtExceptionHandler>();
+
+	// holds a renderbuffer of 4 bytes per pixel until disposed
+	private final GpuResourceTracker gpuResources = new GpuResourceTracker();
+
+	public FakeScreenshotCanvas(IntDimension size) {
+		this.size = size;
+		gpuResources.allocated(GpuResourceTracker.Kind.RENDERBUFFER, 1, 4L * size.getWidth() * size.getHeight());
+	}
+
+	/**
+	 * Behaves as if the render thread of the canvas died.
+	 */
+	public void fail(Throwable e) {
+		for (UncaughtExceptionHandler eh : uncaughtExceptionHandlers) {
+			eh.uncaughtException(null, e);
+		}
+	}
+
+	@Override
+	public void queueSceneUpdate(SceneGraphUpdate update) {
+		update.update(root);
+	}
+
+	@Override
+	public void queueCanvasUpdate(CanvasUpdate update) {
+	}
+
+	@Override
+	public IntDimension getSize() {
+		return size;
+	}
+
+	@Override
+	public void setCropSize(IntDimension size) {
+		this.cropSize = size;
+	}
+
+	@Override
+	public IntDimension getCropSize() {
+		return cropSize == null ? size : cropSize;
+	}
+
+	@Override
+	public BufferedImage takeShot() {
+		IntDimension shotSize = getCropSize();
+		return new BufferedImage(shotSize.getWidth(), shotSize.getHeight(), BufferedImage.TYPE_INT_ARGB);
+	}
+
+	@Override
+	public BufferedImage takeShot(long timeout, TimeUnit unit) {
+		return takeShot();
+	}
+
+	@Override
+	public PooledImage takeShot(ImagePool pool) {
+		return pool.lease(size.getWidth(), size.getHeight());
+	}
+
+	@Override
+	public ListenableFuture<BufferedImage> takeShotAsync(ShotRequest request) {
+		request.queueOn(this);
+		return Futures.immediateFuture(takeShot());
+	}
+
+	@Override
+	public List<BufferedImage> takeShots(List<ShotRequest> requests) {
+		List<BufferedImage> images = new ArrayList<BufferedImage>();
+		for (ShotRequest request : requests) {
+			request.queueOn(this);
+			images.add(takeShot());
+		}
+		return images;
+	}
+
+	@Override
+	public List<BufferedImage> takeAtlasShots(List<ShotRequest> requests, List<IntDimension> sizes) {
+		List<BufferedImage> images = new ArrayList<BufferedImage>();
+		for (int i = 0; i < requests.size(); i++) {
+			requests.get(i).queueOn(this);
+			images.add(new BufferedImage(sizes.get(i).getWidth(), sizes.get(i).getHeight(), BufferedImage.TYPE_INT_ARGB));
+		}
+		atlasShots.add(requests.size());
+		return images;
+	}
+
+	@Override
+	public void setSingleFrameShots(boolean singleFrame) {
+	}
+
+	@Override
+	public void runQueues() {
+	}
+
+	@Override
+	public BasicPassManager getPassManager() {
+		return null;
+	}
+
+	@Override
+	public void dispose() {
+		disposed = true;
+		gpuResources.freed(GpuResourceTracker.Kind.RENDERBUFFER, 1);
+	}
+
+	@Override
+	public GpuResourceTracker getGpuResources() {
+		return gpuResources;
+	}
+
+	@Override
+	public void addUncaughtExceptionHandler(UncaughtExceptionHandler eh) {
+		uncaughtExceptionHandlers.add(eh);
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import static org.testng.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.testng.annotations.Test;
+
+public class GpuResourceTrackerTest {
+
+	@Test
+	public void testGpuResourceTracker() {
+		// the double free below is expected, its warning is checked here
+		// instead of showing up in the test log
+		final List<String> warnings = new ArrayList<String>();
+		Logger log = (Logger) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Logger.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("warn")) {
+							warnings.add((String) args[0]);
+						}
+						return method.getReturnType() == boolean.class ? false : null;
+					}
+				});
+
+		GpuResourceTracker tracker = new GpuResourceTracker(log);
+		tracker.allocated(GpuResourceTracker.Kind.FRAMEBUFFER, 1, 0);
+		tracker.allocated(GpuResourceTracker.Kind.RENDERBUFFER, 1, 100);
+		ScreenshotMetrics metrics = new ScreenshotMetrics();
+		tracker.setMetrics(metrics);
+		assertEquals(metrics.getGpuBytes(), 100);
+
+		// reallocating the storage replaces the bytes
+		tracker.allocated(GpuResourceTracker.Kind.RENDERBUFFER, 1, 40);
+		assertEquals(tracker.getLiveBytes(), 40);
+		assertEquals(tracker.getLiveObjects(), 2);
+		assertEquals(metrics.getGpuBytes(), 40);
+		metrics.reset();
+		assertEquals(metrics.getGpuBytes(), 40);
+
+		tracker.freed(GpuResourceTracker.Kind.RENDERBUFFER, 1);
+		assertTrue(warnings.isEmpty());
+		tracker.freed(GpuResourceTracker.Kind.RENDERBUFFER, 1);
+		assertEquals(warnings.size(), 1);
+		assertTrue(warnings.get(0).contains("wasn't allocated"));
+		assertEquals(tracker.getLiveObjects(GpuResourceTracker.Kind.RENDERBUFFER), 0);
+		assertEquals(tracker.getLiveObjects(GpuResourceTracker.Kind.FRAMEBUFFER), 1);
+		assertEquals(metrics.getGpuBytes(), 0);
+
+		tracker.setMetrics(null);
+		tracker.allocated(GpuResourceTracker.Kind.PIXEL_BUFFER, 2, 8);
+		assertEquals(metrics.getGpuBytes(), 0);
+	}
+
+}
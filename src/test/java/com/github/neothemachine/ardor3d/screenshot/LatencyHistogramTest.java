@@ -0,0 +1,24 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import static org.testng.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testLatencyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		assertEquals(histogram.getCount(), 100);
+		assertEquals(histogram.getMaxMillis(), 100.0);
+		assertEquals(histogram.getMeanMillis(), 50.5, 0.001);
+		// the buckets are powers of two
+		assertTrue(histogram.getMedianMillis() >= 50 && histogram.getMedianMillis() < 100);
+	}
+
+}
@@ -2,6 +2,7 @@ package com.github.neothemachine.ardor3d.screenshot;
 
 import com.github.neothemachine.ardor3d.screenshot.ScreenshotCanvas.Samples;
 import com.github.neothemachine.ardor3d.screenshot.ScreenshotCanvasPool.MaxCanvases;
+import com.github.neothemachine.ardor3d.screenshot.ScreenshotCanvasPool.MaxConcurrentCanvases;
 import com.github.neothemachine.ardor3d.screenshot.ScreenshotCanvasPool.ScreenshotCanvasFactory;
 import com.google.inject.AbstractModule;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
@@ -20,6 +21,8 @@ public class LwjglModule extends AbstractModule {
 				LwjglHeadlessScreenshotCanvas.class).build(
 				ScreenshotCanvasFactory.class));
 		bindConstant().annotatedWith(MaxCanvases.class).to(2);
+		// one canvas exports its shot while the other one draws
+		bindConstant().annotatedWith(MaxConcurrentCanvases.class).to(2);
 		bindConstant().annotatedWith(Samples.class).to(4);
 	}
 }
\ No newline at end of file
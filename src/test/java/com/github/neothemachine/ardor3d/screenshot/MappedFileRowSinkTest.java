@@ -0,0 +1,39 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import static org.testng.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+import org.testng.annotations.Test;
+
+public class MappedFileRowSinkTest {
+
+	@Test
+	public void testStrips() throws IOException {
+		File file = File.createTempFile("tiles", ".argb");
+		file.deleteOnExit();
+		MappedFileRowSink sink = new MappedFileRowSink(file);
+		sink.begin(3, 3);
+		sink.writeRows(0, 2, IntBuffer.wrap(new int[] { 1, 2, 3, 4, 5, 6 }));
+		// only the strip between position and limit is written
+		IntBuffer last = IntBuffer.wrap(new int[] { 7, 8, 9, 0, 0, 0 });
+		last.limit(3);
+		sink.writeRows(2, 1, last);
+		sink.end();
+
+		assertEquals(file.length(), 3 * 3 * 4);
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			for (int i = 1; i <= 9; i++) {
+				assertEquals(in.readInt(), i);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -4,9 +4,7 @@ import java.io.File;
 import java.util.HashSet;
 import java.util.Set;
 
-import com.google.common.base.Predicate;
-
-public class MeshesLoadedCondition implements Predicate<ModelScene> {
+public class MeshesLoadedCondition implements IndexedCondition<ModelScene> {
 	
 	private final Set<File> models;
 
@@ -21,7 +19,12 @@ public class MeshesLoadedCondition implements Predicate<ModelScene> {
 	
 	@Override
 	public boolean apply(ModelScene scene) {
-		return scene.getMeshFiles().containsAll(models);
+		return scene.getIndexKeys().containsAll(models);
+	}
+
+	@Override
+	public Set<File> getRequiredKeys() {
+		return models;
 	}
 	
 }
\ No newline at end of file
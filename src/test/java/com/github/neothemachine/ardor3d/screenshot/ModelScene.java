@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -21,7 +22,7 @@ import com.ardor3d.renderer.state.ZBufferState;
 import com.ardor3d.scenegraph.Node;
 import com.ardor3d.util.resource.SimpleResourceLocator;
 
-public class ModelScene {
+public class ModelScene implements IndexedState {
 	
 	private final Map<File, Node> meshesLoaded = new HashMap<File, Node>();
 
@@ -79,6 +80,14 @@ public class ModelScene {
 		return new HashSet<File>(this.meshesLoaded.keySet());
 	}
 	
+	/**
+	 * The loaded mesh files.
+	 */
+	@Override
+	public Set<File> getIndexKeys() {
+		return Collections.unmodifiableSet(this.meshesLoaded.keySet());
+	}
+	
 	public Map<File, Node> getMeshes() {
 		return new HashMap<File,Node>(this.meshesLoaded);
 	}
@@ -0,0 +1,151 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import static org.testng.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import org.testng.annotations.Test;
+
+import com.ardor3d.image.ImageDataFormat;
+
+public class ScreenShotBufferExporterTest {
+
+	/**
+	 * 2x2 RGBA image in OpenGL row order (bottom row first).
+	 */
+	private static ByteBuffer createRgbaData() {
+		ByteBuffer data = ByteBuffer.allocateDirect(2 * 2 * 4);
+		data.put(new byte[] {
+				(byte) 0xFF, 0, 0, (byte) 0xFF,   // bottom left: red
+				0, (byte) 0xFF, 0, (byte) 0x80,   // bottom right: green, half transparent
+				0, 0, (byte) 0xFF, (byte) 0xFF,   // top left: blue
+				1, 2, 3, 4                        // top right
+				});
+		data.rewind();
+		return data;
+	}
+
+	@Test
+	public void testExport() {
+		ScreenShotBufferExporter exporter = new ScreenShotBufferExporter();
+		exporter.export(createRgbaData(), 2, 2);
+
+		BufferedImage image = exporter.getLastImage();
+		assertEquals(image.getWidth(), 2);
+		assertEquals(image.getHeight(), 2);
+		assertEquals(image.getRGB(0, 0), 0xFF0000FF);
+		assertEquals(image.getRGB(1, 0), 0x04010203);
+		assertEquals(image.getRGB(0, 1), 0xFFFF0000);
+		assertEquals(image.getRGB(1, 1), 0x8000FF00);
+		assertNull(exporter.getLastPooledImage());
+	}
+
+	@Test
+	public void testExportBGRA() {
+		ByteBuffer data = ByteBuffer.allocateDirect(2 * 1 * 4);
+		data.put(new byte[] {
+				(byte) 0xFF, 0, 0, (byte) 0xFF,   // blue
+				3, 2, 1, 4
+				});
+		data.rewind();
+
+		ScreenShotBufferExporter exporter = new ScreenShotBufferExporter(ImageDataFormat.BGRA);
+		assertEquals(exporter.getFormat(), ImageDataFormat.BGRA);
+		exporter.export(data, 2, 1);
+
+		BufferedImage image = exporter.getLastImage();
+		assertEquals(image.getRGB(0, 0), 0xFF0000FF);
+		assertEquals(image.getRGB(1, 0), 0x04010203);
+		assertEquals(data.order(), ByteOrder.BIG_ENDIAN);
+	}
+
+	@Test
+	public void testExportTopDown() {
+		ScreenShotBufferExporter exporter = new ScreenShotBufferExporter();
+		exporter.setTopDown(true);
+		exporter.export(createRgbaData(), 2, 2);
+
+		BufferedImage image = exporter.getLastImage();
+		assertEquals(image.getRGB(0, 0), 0xFFFF0000);
+		assertEquals(image.getRGB(1, 1), 0x04010203);
+
+		ByteBuffer data = ByteBuffer.allocateDirect(1 * 2 * 4);
+		data.put(new byte[] { 0, 0, (byte) 0xFF, (byte) 0xFF, 3, 2, 1, 4 });
+		data.rewind();
+		exporter = new ScreenShotBufferExporter(ImageDataFormat.BGRA);
+		exporter.setTopDown(true);
+		exporter.export(data, 1, 2);
+
+		image = exporter.getLastImage();
+		assertEquals(image.getRGB(0, 0), 0xFFFF0000);
+		assertEquals(image.getRGB(0, 1), 0x04010203);
+	}
+
+	@Test
+	public void testExportIntBuffer() {
+		IntBuffer data = ByteBuffer.allocateDirect(1 * 2 * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		data.put(0xFFFF0000).put(0x04010203);
+		data.rewind();
+
+		ScreenShotBufferExporter exporter = new ScreenShotBufferExporter(ImageDataFormat.BGRA);
+		exporter.export(data, 1, 2);
+
+		BufferedImage image = exporter.getLastImage();
+		assertEquals(image.getRGB(0, 0), 0x04010203);
+		assertEquals(image.getRGB(0, 1), 0xFFFF0000);
+		assertEquals(data.position(), 0);
+	}
+
+	@Test
+	public void testPooledExport() {
+		ImagePool pool = new ImagePool();
+		ScreenShotBufferExporter exporter = new ScreenShotBufferExporter();
+		exporter.setImagePool(pool);
+
+		exporter.export(createRgbaData(), 2, 2);
+		PooledImage first = exporter.getLastPooledImage();
+		assertSame(first.getImage(), exporter.getLastImage());
+		assertEquals(first.getImage().getRGB(0, 0), 0xFF0000FF);
+		first.release();
+
+		exporter.export(createRgbaData(), 2, 2);
+		PooledImage second = exporter.getLastPooledImage();
+		assertSame(second, first);
+		assertEquals(second.getImage().getRGB(1, 1), 0x8000FF00);
+
+		// a still leased image is never handed out twice
+		exporter.export(createRgbaData(), 2, 2);
+		assertNotSame(exporter.getLastPooledImage(), second);
+	}
+
+	@Test
+	public void testExportRegion() {
+		// 3x2 image in OpenGL row order, the pixel values are x + 10 * y counted from the top
+		IntBuffer data = ByteBuffer.allocateDirect(3 * 2 * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		data.put(new int[] { 10, 11, 12, 0, 1, 2 });
+		data.rewind();
+
+		ScreenShotBufferExporter exporter = new ScreenShotBufferExporter(ImageDataFormat.BGRA);
+		exporter.exportRegion(data, 3, 2, 1, 0, 2, 2);
+		BufferedImage image = exporter.getLastImage();
+		assertEquals(image.getWidth(), 2);
+		assertEquals(image.getHeight(), 2);
+		assertEquals(image.getRGB(0, 0), 1);
+		assertEquals(image.getRGB(1, 1), 12);
+
+		exporter.setTopDown(true);
+		exporter.exportRegion(data, 3, 2, 0, 1, 1, 1);
+		assertEquals(exporter.getLastImage().getRGB(0, 0), 0);
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testDoubleRelease() {
+		PooledImage image = new ImagePool().lease(1, 1);
+		image.release();
+		image.release();
+	}
+
+}
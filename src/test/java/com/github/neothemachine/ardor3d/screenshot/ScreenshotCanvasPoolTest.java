@@ -0,0 +1,718 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import static org.testng.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.javatuples.Pair;
+import org.testng.annotations.Test;
+
+import com.github.neothemachine.ardor3d.screenshot.ScreenshotCanvasPool.Priority;
+import com.github.neothemachine.ardor3d.screenshot.ScreenshotCanvasPool.ScreenshotCanvasFactory;
+import com.google.common.base.Predicates;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class ScreenshotCanvasPoolTest {
+
+	private static final IntDimension SIZE = new IntDimension(4, 3);
+
+	@Test
+	public void testSingleCanvasInUse() throws Exception {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 2);
+		ScreenshotCanvas canvas = pool.getCanvas(SIZE);
+		try {
+			pool.getCanvas(SIZE, 10, TimeUnit.MILLISECONDS);
+			fail("only one canvas may be in use by default");
+		} catch (TimeoutException e) {
+		}
+		pool.returnCanvas(canvas);
+		assertSame(pool.getCanvas(SIZE, 10, TimeUnit.MILLISECONDS), canvas);
+	}
+
+	@Test
+	public void testConcurrentCanvases() throws Exception {
+		FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(factory, 3);
+		pool.setMaxConcurrentCanvases(2);
+
+		ScreenshotCanvas first = pool.getCanvas(SIZE, 10, TimeUnit.MILLISECONDS);
+		ScreenshotCanvas second = pool.getCanvas(SIZE, 10, TimeUnit.MILLISECONDS);
+		assertNotSame(first, second);
+		assertEquals(factory.created.size(), 2);
+		try {
+			pool.getCanvas(SIZE, 10, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (TimeoutException e) {
+		}
+		pool.returnCanvas(first);
+		pool.returnCanvas(second);
+		pool.disposeAll();
+	}
+
+	@Test
+	public void testHandOverToSameSize() throws Exception {
+		IntDimension otherSize = new IntDimension(5, 5);
+		FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(factory, 2);
+		ScreenshotCanvas canvas = pool.getCanvas(SIZE);
+
+		ListenableFuture<ScreenshotCanvas> other = pool.acquireAsync(otherSize);
+		ListenableFuture<ScreenshotCanvas> same = pool.acquireAsync(SIZE);
+		assertEquals(pool.getWaiterCount(), 2);
+
+		// goes to the waiter of the same size although it came later
+		pool.returnCanvas(canvas);
+		assertSame(same.get(1, TimeUnit.SECONDS), canvas);
+		assertEquals(pool.getWaiterCount(), 1);
+
+		pool.returnCanvas(canvas);
+		assertEquals(other.get(1, TimeUnit.SECONDS).getSize(), otherSize);
+		assertEquals(factory.created.size(), 2);
+	}
+
+	@Test
+	public void testTimeoutPassesOnTurn() throws Exception {
+		final ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 2);
+		ScreenshotCanvas canvas = pool.getCanvas(SIZE);
+		try {
+			pool.getCanvas(SIZE, 10, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (TimeoutException e) {
+		}
+		assertEquals(pool.getWaiterCount(), 0);
+		pool.returnCanvas(canvas);
+		assertSame(pool.getCanvas(SIZE, 10, TimeUnit.MILLISECONDS), canvas);
+	}
+
+	@Test
+	public void testCostWeightedEviction() throws Exception {
+		FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(factory, 2);
+		fillForEviction(pool, new FakeTicker());
+
+		pool.returnCanvas(pool.getCanvas(new IntDimension(6, 6)));
+		// the canvas without a state is the cheapest to rebuild
+		assertFalse(factory.created.get(0).disposed);
+		assertTrue(factory.created.get(1).disposed);
+	}
+
+	@Test
+	public void testStateHitsResetWithState() {
+		CanvasEntry entry = new CanvasEntry(new FakeScreenshotCanvas(SIZE), 0, 0);
+		entry.leased(false, 0);
+		entry.returned("loaded scene", 10);
+		entry.leased(true, 10);
+		entry.returned("loaded scene", 20);
+		assertEquals(entry.getStateHits(), 1);
+		assertEquals(entry.getStateNanos(), 20);
+
+		// a new state hasn't been reused yet
+		entry.leased(false, 20);
+		assertEquals(entry.getStateHits(), 0);
+		assertEquals(entry.getStateNanos(), 0);
+		assertNull(entry.getState());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() throws Exception {
+		FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(factory, 2);
+		pool.setEvictionPolicy(new EvictionPolicy.LeastRecentlyUsed());
+		fillForEviction(pool, new FakeTicker());
+
+		pool.returnCanvas(pool.getCanvas(new IntDimension(6, 6)));
+		assertTrue(factory.created.get(0).disposed);
+		assertFalse(factory.created.get(1).disposed);
+	}
+
+	/**
+	 * Returns an older canvas with an expensive state and a newer one without state.
+	 */
+	private static void fillForEviction(ScreenshotCanvasPool pool, FakeTicker ticker) {
+		pool.setTicker(ticker);
+		ScreenshotCanvas expensive = pool.getCanvas(SIZE);
+		ticker.advance(20, TimeUnit.MILLISECONDS);
+		pool.returnCanvas(expensive, "loaded scene");
+		ticker.advance(1, TimeUnit.MILLISECONDS);
+		pool.returnCanvas(pool.getCanvas(new IntDimension(5, 5)));
+	}
+
+	@Test
+	public void testResizeOnlyWhenFull() {
+		FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(true);
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(factory, 2);
+		ScreenshotCanvas first = pool.getCanvas(SIZE);
+		pool.returnCanvas(first);
+
+		// there's room for another canvas
+		ScreenshotCanvas second = pool.getCanvas(new IntDimension(5, 5));
+		assertNotSame(second, first);
+		pool.returnCanvas(second);
+
+		// the kept warm canvas isn't resized
+		pool.keepWarm(new IntDimension(5, 5), 1);
+		assertSame(pool.getCanvas(new IntDimension(6, 6)), first);
+		assertEquals(first.getSize(), new IntDimension(6, 6));
+		assertEquals(second.getSize(), new IntDimension(5, 5));
+		assertEquals(factory.created.size(), 2);
+		assertEquals(pool.getMetrics().getResizeHits(), 1);
+	}
+
+	@Test
+	public void testWarmUp() {
+		FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(factory, 2);
+		// the third canvas doesn't fit into the pool
+		assertEquals(pool.warmUp(Arrays.asList(SIZE, SIZE, SIZE)), 2);
+		assertEquals(factory.created.size(), 2);
+
+		ScreenshotCanvas canvas = pool.getCanvas(SIZE);
+		assertTrue(factory.created.contains(canvas));
+		assertEquals(factory.created.size(), 2);
+	}
+
+	@Test
+	public void testKeepWarm() throws Exception {
+		FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(factory, 2);
+		pool.keepWarm(SIZE, 1);
+		pool.awaitBackgroundWork();
+		assertEquals(pool.getUnusedCount(), 1);
+
+		ScreenshotCanvas canvas = pool.getCanvas(SIZE);
+		assertSame(canvas, factory.created.get(0));
+		// the canvas in use takes the only slot
+		pool.awaitBackgroundWork();
+		assertEquals(factory.created.size(), 1);
+
+		// replaced in the background
+		pool.setMaxConcurrentCanvases(2);
+		pool.awaitBackgroundWork();
+		assertEquals(pool.getUnusedCount(), 1);
+		assertEquals(factory.created.size(), 2);
+		pool.returnCanvas(canvas);
+		pool.awaitBackgroundWork();
+		assertEquals(factory.created.size(), 2);
+	}
+
+	@Test
+	public void testDisposeAllDuringCreation() throws Exception {
+		final FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		final CountDownLatch creating = new CountDownLatch(1);
+		final CountDownLatch proceed = new CountDownLatch(1);
+		final ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new ScreenshotCanvasFactory() {
+			@Override
+			public ScreenshotCanvas create(IntDimension size) {
+				creating.countDown();
+				Uninterruptibles.awaitUninterruptibly(proceed);
+				return factory.create(size);
+			}
+		}, 2);
+		pool.keepWarm(SIZE, 1);
+		creating.await();
+
+		Thread disposer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				pool.disposeAll();
+			}
+		});
+		disposer.start();
+		proceed.countDown();
+		disposer.join();
+
+		// the canvas doesn't show up in the pool after disposeAll() returned
+		assertEquals(pool.getUnusedCount(), 0);
+		assertTrue(factory.created.get(0).disposed);
+	}
+
+	@Test(timeOut = 10000)
+	public void testNoLeaseWhileDisposing() throws Exception {
+		final FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		final CountDownLatch creating = new CountDownLatch(1);
+		final CountDownLatch proceed = new CountDownLatch(1);
+		final ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new ScreenshotCanvasFactory() {
+			@Override
+			public ScreenshotCanvas create(IntDimension size) {
+				creating.countDown();
+				Uninterruptibles.awaitUninterruptibly(proceed);
+				return factory.create(size);
+			}
+		}, 2);
+		pool.setMaxConcurrentCanvases(2);
+		pool.keepWarm(SIZE, 1);
+		creating.await();
+
+		Thread disposer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				pool.disposeAll();
+			}
+		});
+		disposer.start();
+		while (!pool.isDisposing()) {
+			Thread.yield();
+		}
+		// a slot is free, but disposeAll() waits for the creation
+		ListenableFuture<ScreenshotCanvas> request = pool.acquireAsync(new IntDimension(5, 5));
+		assertFalse(request.isDone());
+		proceed.countDown();
+		disposer.join();
+
+		// served after disposeAll(), which didn't clear its entry
+		ScreenshotCanvas canvas = request.get(1, TimeUnit.SECONDS);
+		pool.returnCanvas(canvas);
+		assertEquals(pool.getUnusedCount(), 1);
+		assertFalse(((FakeScreenshotCanvas) canvas).disposed);
+	}
+
+	@Test(timeOut = 10000)
+	public void testFailureWhileCreating() throws Exception {
+		// stands in for the thread of a shared context, which creates the
+		// canvases and calls the handlers of failed ones
+		final ExecutorService context = Executors.newSingleThreadExecutor();
+		final FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		final CountDownLatch creating = new CountDownLatch(2);
+		final ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new ScreenshotCanvasFactory() {
+			@Override
+			public ScreenshotCanvas create(final IntDimension size) {
+				creating.countDown();
+				return Futures.getUnchecked(context.submit(new Callable<ScreenshotCanvas>() {
+					@Override
+					public ScreenshotCanvas call() {
+						return factory.create(size);
+					}
+				}));
+			}
+		}, 2);
+		pool.setMaxConcurrentCanvases(2);
+		final FakeScreenshotCanvas failing = (FakeScreenshotCanvas) pool.getCanvas(SIZE);
+
+		final CountDownLatch proceed = new CountDownLatch(1);
+		context.execute(new Runnable() {
+			@Override
+			public void run() {
+				Uninterruptibles.awaitUninterruptibly(proceed);
+				failing.fail(new RuntimeException("render thread died"));
+			}
+		});
+		// creates a canvas on the context thread while holding the lock
+		Future<ScreenshotCanvas> other = Executors.newSingleThreadExecutor().submit(new Callable<ScreenshotCanvas>() {
+			@Override
+			public ScreenshotCanvas call() {
+				return pool.getCanvas(new IntDimension(5, 5));
+			}
+		});
+		creating.await();
+		proceed.countDown();
+
+		assertEquals(other.get().getSize(), new IntDimension(5, 5));
+		pool.awaitHandOffs();
+		assertTrue(failing.disposed);
+		// returning it in a finally block of the user doesn't fail
+		pool.returnCanvas(failing);
+		// the slot of the failed canvas is free again
+		pool.returnCanvas(pool.getCanvas(SIZE, 10, TimeUnit.MILLISECONDS));
+		context.shutdown();
+	}
+
+	@Test
+	public void testSizeBuckets() {
+		FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(factory, 2);
+		pool.setSizeBucket(64);
+
+		ScreenshotCanvas canvas = pool.getCanvas(new IntDimension(500, 600));
+		assertEquals(canvas.getSize(), new IntDimension(512, 640));
+		assertEquals(ScreenshotCanvasPool.getImageSize(canvas), new IntDimension(500, 600));
+		BufferedImage image = canvas.takeShot();
+		assertEquals(image.getWidth(), 500);
+		assertEquals(image.getHeight(), 600);
+		pool.returnCanvas(canvas);
+
+		assertSame(pool.getCanvas(new IntDimension(500, 602)), canvas);
+		assertEquals(canvas.takeShot().getHeight(), 602);
+		pool.returnCanvas(canvas);
+
+		assertSame(pool.getCanvas(new IntDimension(512, 640)), canvas);
+		assertNull(((FakeScreenshotCanvas) canvas).cropSize);
+		assertEquals(factory.created.size(), 1);
+	}
+
+	@Test
+	public void testSizeBucketsNeedCroppableCanvases() {
+		final List<ScreenshotCanvas> disposed = new ArrayList<ScreenshotCanvas>();
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new ScreenshotCanvasFactory() {
+			@Override
+			public ScreenshotCanvas create(final IntDimension size) {
+				return (ScreenshotCanvas) Proxy.newProxyInstance(getClass().getClassLoader(),
+						new Class<?>[] { ScreenshotCanvas.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("hashCode")) {
+							return System.identityHashCode(proxy);
+						} else if (method.getName().equals("equals")) {
+							return proxy == args[0];
+						} else if (method.getName().equals("getSize")) {
+							return size;
+						} else if (method.getName().equals("dispose")) {
+							disposed.add((ScreenshotCanvas) proxy);
+						}
+						return null;
+					}
+				});
+			}
+		}, 2);
+		pool.setSizeBucket(64);
+		try {
+			pool.getCanvas(new IntDimension(500, 600));
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		// rejected before it was handed out
+		assertEquals(disposed.size(), 1);
+		assertEquals(pool.getUnusedCount(), 0);
+
+		// the failed request didn't keep its slot
+		pool.setSizeBucket(1);
+		assertNotNull(pool.tryGetCanvas(SIZE));
+	}
+
+	@Test
+	public void testIdleReaper() throws Exception {
+		FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(factory, 3);
+		FakeTicker ticker = new FakeTicker();
+		pool.setTicker(ticker);
+		pool.setMinIdleCanvases(1);
+		pool.warmUp(Arrays.asList(SIZE, new IntDimension(5, 5)));
+		// long enough for the reaper thread not to run during the test
+		pool.setIdleTimeout(TimeUnit.MINUTES.toMillis(10));
+
+		ticker.advance(9, TimeUnit.MINUTES);
+		assertEquals(pool.reapIdleCanvases(), 0);
+		ticker.advance(1, TimeUnit.MINUTES);
+		// the newer canvas is kept as minimum
+		assertEquals(pool.reapIdleCanvases(), 1);
+		assertEquals(pool.getUnusedCount(), 1);
+		assertTrue(factory.created.get(0).disposed);
+		assertFalse(factory.created.get(1).disposed);
+		pool.setIdleTimeout(0);
+	}
+
+	@Test
+	public void testIdleReaperWaitsForSlot() {
+		FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(factory, 2);
+		FakeTicker ticker = new FakeTicker();
+		pool.setTicker(ticker);
+		pool.warmUp(Arrays.asList(SIZE));
+		pool.setIdleTimeout(TimeUnit.MINUTES.toMillis(10));
+
+		ScreenshotCanvas canvas = pool.getCanvas(new IntDimension(5, 5));
+		ticker.advance(10, TimeUnit.MINUTES);
+		// disposing counts as using a canvas
+		assertEquals(pool.reapIdleCanvases(), 0);
+		pool.returnCanvas(canvas);
+		assertEquals(pool.reapIdleCanvases(), 1);
+		assertTrue(factory.created.get(0).disposed);
+		pool.setIdleTimeout(0);
+	}
+
+	@Test
+	public void testDisposeAllStopsReaper() {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 2);
+		pool.setIdleTimeout(TimeUnit.MINUTES.toMillis(10));
+		assertTrue(pool.isReaperScheduled());
+
+		pool.disposeAll();
+		assertFalse(pool.isReaperScheduled());
+
+		// it starts again once there is something to reap
+		pool.returnCanvas(pool.getCanvas(SIZE));
+		assertTrue(pool.isReaperScheduled());
+		pool.setIdleTimeout(0);
+		assertFalse(pool.isReaperScheduled());
+	}
+
+	@Test
+	public void testBestStateMatch() {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 3);
+		pool.setMaxConcurrentCanvases(2);
+		ScreenshotCanvas one = pool.getCanvas(SIZE);
+		ScreenshotCanvas two = pool.getCanvas(SIZE);
+		pool.returnCanvas(one, new KeyState("a"));
+		pool.returnCanvas(two, new KeyState("a", "b"));
+
+		Set<String> keys = new HashSet<String>(Arrays.asList("a", "b", "c"));
+		Pair<ScreenshotCanvas, KeyState> match = pool.getCanvasBestMatch(SIZE, KeyState.class, keys, null);
+		assertSame(match.getValue0(), two);
+		pool.returnCanvas(two, match.getValue1());
+
+		// a negative score rules a state out
+		match = pool.getCanvasBestMatch(SIZE, KeyState.class, keys, new StateScorer<KeyState>() {
+			@Override
+			public double score(KeyState state, int matchedKeys) {
+				return -state.getIndexKeys().size();
+			}
+		});
+		assertNull(match);
+		// prefers the smallest state
+		match = pool.getCanvasBestMatch(SIZE, KeyState.class, keys, new StateScorer<KeyState>() {
+			@Override
+			public double score(KeyState state, int matchedKeys) {
+				return 1.0 / state.getIndexKeys().size();
+			}
+		});
+		assertSame(match.getValue0(), one);
+		pool.returnCanvas(one, match.getValue1());
+
+		assertNull(pool.getCanvasBestMatch(SIZE, KeyState.class, Collections.singleton("z"), null));
+		assertNotNull(pool.getCanvasBestMatch(SIZE, KeyState.class, Collections.emptySet(), null));
+	}
+
+	@Test
+	public void testIndexedConditionMatch() {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 3);
+		pool.setMaxConcurrentCanvases(3);
+		ScreenshotCanvas one = pool.getCanvas(SIZE);
+		ScreenshotCanvas two = pool.getCanvas(SIZE);
+		ScreenshotCanvas other = pool.getCanvas(SIZE);
+		pool.returnCanvas(one, new KeyState("a"));
+		pool.returnCanvas(two, new KeyState("a", "b"));
+		pool.returnCanvas(other, "not indexed");
+
+		final List<KeyState> tested = new ArrayList<KeyState>();
+		Pair<ScreenshotCanvas, KeyState> match = pool.getCanvasIfMatch(SIZE, KeyState.class,
+				new IndexedCondition<KeyState>() {
+			@Override
+			public boolean apply(KeyState state) {
+				tested.add(state);
+				return state.getIndexKeys().containsAll(getRequiredKeys());
+			}
+
+			@Override
+			public Set<String> getRequiredKeys() {
+				return new HashSet<String>(Arrays.asList("a", "b"));
+			}
+		});
+		assertSame(match.getValue0(), two);
+		// the state without "b" wasn't looked at
+		assertEquals(tested, Arrays.asList(match.getValue1()));
+		pool.returnCanvas(two, match.getValue1());
+
+		// plain conditions only see states of the type
+		Pair<ScreenshotCanvas, String> string = pool.getCanvasIfMatch(SIZE, String.class,
+				Predicates.<String>alwaysTrue());
+		assertSame(string.getValue0(), other);
+	}
+
+	private static class KeyState implements IndexedState {
+		private final Set<String> keys;
+
+		KeyState(String... keys) {
+			this.keys = new HashSet<String>(Arrays.asList(keys));
+		}
+
+		@Override
+		public Set<String> getIndexKeys() {
+			return keys;
+		}
+	}
+
+	/**
+	 * A ticker which only moves when the test advances it.
+	 */
+	private static class FakeTicker extends Ticker {
+		private long nanos = 0;
+
+		@Override
+		public synchronized long read() {
+			return nanos;
+		}
+
+		synchronized void advance(long time, TimeUnit unit) {
+			nanos += unit.toNanos(time);
+		}
+	}
+
+	@Test
+	public void testTryGetCanvas() {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 2);
+		ScreenshotCanvas canvas = pool.tryGetCanvas(SIZE);
+		assertNotNull(canvas);
+		assertNull(pool.tryGetCanvas(SIZE));
+		pool.returnCanvas(canvas);
+		assertSame(pool.tryGetCanvas(SIZE), canvas);
+	}
+
+	@Test
+	public void testAcquireAsync() throws Exception {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 2);
+		ScreenshotCanvas canvas = pool.acquireAsync(SIZE).get(0, TimeUnit.SECONDS);
+
+		ListenableFuture<ScreenshotCanvas> cancelled = pool.acquireAsync(SIZE);
+		ListenableFuture<ScreenshotCanvas> other = pool.acquireAsync(new IntDimension(5, 5));
+		assertFalse(other.isDone());
+		assertEquals(pool.getWaiterCount(), 2);
+		cancelled.cancel(false);
+		assertEquals(pool.getWaiterCount(), 1);
+
+		pool.returnCanvas(canvas);
+		assertEquals(other.get(1, TimeUnit.SECONDS).getSize(), new IntDimension(5, 5));
+		assertNull(pool.tryGetCanvas(SIZE));
+	}
+
+	@Test
+	public void testPriority() throws Exception {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 2);
+		ScreenshotCanvas canvas = pool.getCanvas(SIZE);
+		ListenableFuture<ScreenshotCanvas> bulk = pool.acquireAsync(SIZE, Priority.BULK);
+		ListenableFuture<ScreenshotCanvas> interactive = pool.acquireAsync(new IntDimension(5, 5));
+
+		// the bulk request of the same size doesn't take over the canvas
+		pool.returnCanvas(canvas);
+		pool.returnCanvas(interactive.get(1, TimeUnit.SECONDS));
+		assertSame(bulk.get(1, TimeUnit.SECONDS), canvas);
+	}
+
+	@Test
+	public void testPriorityAging() throws Exception {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 2);
+		FakeTicker ticker = new FakeTicker();
+		pool.setTicker(ticker);
+		pool.setPriorityAging(10);
+		ScreenshotCanvas canvas = pool.getCanvas(SIZE);
+		ListenableFuture<ScreenshotCanvas> bulk = pool.acquireAsync(SIZE, Priority.BULK);
+		ticker.advance(20, TimeUnit.MILLISECONDS);
+		ListenableFuture<ScreenshotCanvas> interactive = pool.acquireAsync(new IntDimension(5, 5));
+
+		pool.returnCanvas(canvas);
+		assertSame(bulk.get(1, TimeUnit.SECONDS), canvas);
+		assertFalse(interactive.isDone());
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 2);
+		ScreenshotMetrics metrics = pool.getMetrics();
+		pool.returnCanvas(pool.getCanvas(SIZE));
+		pool.returnCanvas(pool.getCanvas(SIZE));
+		pool.returnCanvas(pool.getCanvas(new IntDimension(5, 5)));
+		pool.returnCanvas(pool.getCanvas(new IntDimension(6, 6)));
+		assertNull(pool.getCanvasIfMatch(SIZE, String.class, Predicates.<String>alwaysTrue()));
+
+		assertEquals(metrics.getMisses(), 3);
+		assertEquals(metrics.getExactSizeHits(), 1);
+		assertEquals(metrics.getEvictions(), 1);
+		assertEquals(metrics.getStateMisses(), 1);
+		assertEquals(metrics.getCreateTime().getCount(), 3);
+		assertEquals(metrics.getDisposeTime().getCount(), 1);
+		assertEquals(metrics.getWaitTime().getCount(), 5);
+
+		metrics.register("test");
+		try {
+			ObjectName name = new ObjectName("com.github.neothemachine.ardor3d.screenshot:type=ScreenshotMetrics,name=\"test\"");
+			assertEquals(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Misses"), 3L);
+			CompositeData waitTime = (CompositeData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "WaitTime");
+			assertEquals(waitTime.get("count"), 5L);
+		} finally {
+			metrics.unregister();
+		}
+	}
+
+	@Test
+	public void testAtlasShots() {
+		FakeScreenshotCanvas.Factory factory = new FakeScreenshotCanvas.Factory(false);
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(factory, 2);
+
+		// two shelves of two 4x4 images fit into a 10x10 atlas, the last one
+		// takes the 2x10 image next to the 4x4 one
+		List<ShotRequest> requests = new ArrayList<ShotRequest>();
+		List<IntDimension> sizes = new ArrayList<IntDimension>();
+		for (int i = 0; i < 9; i++) {
+			requests.add(new ShotRequest());
+			sizes.add(new IntDimension(4, 4));
+		}
+		requests.add(new ShotRequest());
+		sizes.add(new IntDimension(2, 10));
+
+		List<BufferedImage> images = pool.takeAtlasShots(new IntDimension(10, 10), requests, sizes);
+		assertEquals(images.size(), 10);
+		assertEquals(images.get(9).getHeight(), 10);
+		assertEquals(factory.created.size(), 1);
+		assertEquals(factory.created.get(0).atlasShots, Arrays.asList(4, 4, 2));
+		assertEquals(pool.getMetrics().getMisses(), 1);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testAtlasShotTooLarge() {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 2);
+		pool.takeAtlasShots(new IntDimension(10, 10), Arrays.asList(new ShotRequest()),
+				Arrays.asList(new IntDimension(11, 1)));
+	}
+
+	@Test
+	public void testGpuBytes() {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 2);
+		pool.setEvictionPolicy(new EvictionPolicy.LeastRecentlyUsed());
+		ScreenshotCanvas canvas = pool.getCanvas(SIZE);
+		pool.returnCanvas(canvas);
+		assertEquals(pool.getGpuBytes(), 4 * 4 * 3);
+		// recorded into the metrics of the pool without further wiring
+		assertEquals(pool.getMetrics().getGpuBytes(), 4 * 4 * 3);
+
+		// evicted for another size
+		pool.returnCanvas(pool.getCanvas(new IntDimension(2, 2)));
+		pool.returnCanvas(pool.getCanvas(new IntDimension(1, 1)));
+		assertTrue(((FakeScreenshotCanvas) canvas).disposed);
+		assertEquals(pool.getGpuBytes(), 4 * (2 * 2 + 1));
+
+		// moved to other metrics
+		ScreenshotMetrics old = pool.getMetrics();
+		ScreenshotMetrics metrics = new ScreenshotMetrics();
+		pool.setMetrics(metrics);
+		assertEquals(old.getGpuBytes(), 0);
+		assertEquals(metrics.getGpuBytes(), 4 * (2 * 2 + 1));
+
+		pool.disposeAll();
+		assertEquals(pool.getGpuBytes(), 0);
+		assertEquals(metrics.getGpuBytes(), 0);
+	}
+
+	@Test
+	public void testInterruptedWait() throws Exception {
+		ScreenshotCanvasPool pool = new ScreenshotCanvasPool(new FakeScreenshotCanvas.Factory(false), 2);
+		pool.getCanvas(SIZE);
+		Thread.currentThread().interrupt();
+		try {
+			pool.getCanvas(SIZE, 1, TimeUnit.MINUTES);
+			fail();
+		} catch (InterruptedException e) {
+		}
+	}
+
+}
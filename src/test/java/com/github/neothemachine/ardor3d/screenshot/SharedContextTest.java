@@ -0,0 +1,125 @@
+package com.github.neothemachine.ardor3d.screenshot;
+
+import static org.testng.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Callable;
+
+import javax.inject.Inject;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Guice;
+import org.testng.annotations.Test;
+
+import com.ardor3d.renderer.Renderer;
+import com.ardor3d.renderer.pass.Pass;
+
+/**
+ * run with -Djava.library.path=target/natives
+ */
+@Guice(modules = {SharedContextModule.class})
+public class SharedContextTest {
+
+	private final ScreenshotCanvasPool pool;
+	private final SharedHeadlessContext context;
+
+	@Inject
+	public SharedContextTest(ScreenshotCanvasPool pool, SharedHeadlessContext context) {
+		this.pool = pool;
+		this.context = context;
+	}
+
+	@AfterMethod
+	public void dispose() {
+		this.pool.disposeAll();
+	}
+
+	@AfterClass
+	public void disposeContext() {
+		this.context.dispose();
+	}
+
+	@Test
+	public void testConcurrentCanvases() {
+		ScreenshotCanvas first = pool.getCanvas(new IntDimension(40, 30));
+		ScreenshotCanvas second = pool.getCanvas(new IntDimension(50, 20));
+		try {
+			assertEquals(first.takeShot().getWidth(), 40);
+			assertEquals(second.takeShot().getHeight(), 20);
+		} finally {
+			pool.returnCanvas(first);
+			pool.returnCanvas(second);
+		}
+	}
+
+	@Test(timeOut = 10000)
+	public void testShotOnContextThread() {
+		final ScreenshotCanvas canvas = pool.getCanvas(new IntDimension(40, 30));
+		try {
+			// would wait for itself if the shot was queued behind the caller
+			BufferedImage image = context.call(new Callable<BufferedImage>() {
+				@Override
+				public BufferedImage call() {
+					return canvas.takeShot();
+				}
+			});
+			assertEquals(image.getWidth(), 40);
+		} finally {
+			pool.returnCanvas(canvas);
+		}
+	}
+
+	@Test(timeOut = 10000)
+	public void testFailingCanvas() throws Exception {
+		ScreenshotCanvas failing = pool.getCanvas(new IntDimension(40, 30));
+		try {
+			// exceptions of queued updates are swallowed by Ardor3D, those
+			// of passes fail the canvas
+			failing.getPassManager().add(new Pass() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void doRender(Renderer r) {
+					throw new IllegalStateException("broken pass");
+				}
+			});
+			failing.takeShot();
+			fail();
+		} catch (Ardor3DRenderException e) {
+		} finally {
+			pool.returnCanvas(failing);
+		}
+		pool.awaitHandOffs();
+
+		// creating another canvas needs the context thread, which handled the failure
+		ScreenshotCanvas first = pool.getCanvas(new IntDimension(50, 20));
+		ScreenshotCanvas second = pool.getCanvas(new IntDimension(30, 30));
+		try {
+			assertEquals(first.takeShot().getWidth(), 50);
+			assertEquals(second.takeShot().getWidth(), 30);
+		} finally {
+			pool.returnCanvas(first);
+			pool.returnCanvas(second);
+		}
+	}
+
+	@Test(timeOut = 10000)
+	public void testDisposeOnContextThread() {
+		final ScreenshotCanvas canvas = new SharedContextScreenshotCanvas(
+				new IntDimension(40, 30), 0, context);
+		context.call(new Callable<Void>() {
+			@Override
+			public Void call() {
+				canvas.dispose();
+				return null;
+			}
+		});
+		try {
+			canvas.takeShot();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
+}
@@ -1,10 +1,10 @@
 package com.github.neothemachine.ardor3d.screenshot;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.Set;
 
-import com.google.common.base.Predicate;
-
-public class SingleMeshLoadedCondition implements Predicate<ModelScene> {
+public class SingleMeshLoadedCondition implements IndexedCondition<ModelScene> {
 	
 	private final File model;
 
@@ -16,5 +16,10 @@ public class SingleMeshLoadedCondition implements Predicate<ModelScene> {
 	public boolean apply(ModelScene scene) {
 		return scene.getMeshCount() == 1 && scene.isMeshLoaded(model);
 	}
+
+	@Override
+	public Set<File> getRequiredKeys() {
+		return Collections.singleton(model);
+	}
 	
 }
\ No newline at end of file